@@ -0,0 +1,159 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open model load generator for {@code /api/v1/scan}.
+ * <p>
+ * Requests are started following a Poisson process at the given rate whatever the response times are,
+ * and latencies are measured from the time a request should have started, so that a slow service can not
+ * hide its queueing delay (coordinated omission). Requests still unfinished {@code timeout} milliseconds after the
+ * end of the run are counted as errors. Usage :
+ * <pre>
+ *     java -jar avaas-loadtest.jar --url http://localhost:8080/api/v1/scan --rate 50 --duration 60
+ *                                  [--corpus DIR | --sizes 10K:70,1M:25,10M:5] [--raw]
+ *                                  [--connections 256] [--timeout 30000] [--header Name=Value]...
+ *                                  [--report report.json] [--baseline baseline.json] [--tolerance 0.1]
+ * </pre>
+ * Exits with status 2 if a regression against the baseline is detected.
+ */
+public class LoadGenerator {
+
+    // one hour, in microseconds
+    private static final long HIGHEST_LATENCY = TimeUnit.HOURS.toMicros(1);
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        final Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            final String option = args[i];
+            if ("--raw".equals(option)) {
+                options.put("raw", "true");
+            } else if (option.startsWith("--") && i + 1 < args.length) {
+                final String value = args[++i];
+                if ("--header".equals(option)) {
+                    final String[] header = value.split("=", 2);
+                    headers.put(header[0], header.length > 1 ? header[1] : "");
+                } else {
+                    options.put(option.substring(2), value);
+                }
+            } else {
+                throw new IllegalArgumentException("Unexpected argument " + option);
+            }
+        }
+
+        final String url = options.getOrDefault("url", "http://localhost:8080/api/v1/scan");
+        final double rate = Double.parseDouble(options.getOrDefault("rate", "10"));
+        final long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "60")));
+        final int connections = Integer.parseInt(options.getOrDefault("connections", "256"));
+        final int timeout = Integer.parseInt(options.getOrDefault("timeout", "30000"));
+        final Payloads payloads = options.containsKey("corpus")
+                ? Payloads.fromCorpus(Paths.get(options.get("corpus")))
+                : Payloads.synthetic(options.getOrDefault("sizes", "10K:70,1M:25,10M:5"), !options.containsKey("raw"));
+
+        final ScanClient client = new ScanClient(new URL(url), timeout, headers);
+        final Map<String, ConcurrentHistogram> histograms = new LinkedHashMap<>();
+        for (String verdict : new String[] {ScanClient.CLEAN, ScanClient.INFECTED, ScanClient.BLACKLIST, ScanClient.ERROR}) {
+            histograms.put(verdict, new ConcurrentHistogram(HIGHEST_LATENCY, 3));
+        }
+
+        final ExecutorService senders = Executors.newFixedThreadPool(connections);
+        final Random random = new Random();
+        final double meanInterval = TimeUnit.SECONDS.toNanos(1) / rate;
+        // intended start of each request not completed yet
+        final Map<Long, Long> inFlight = new ConcurrentHashMap<>();
+        long sequence = 0;
+        final long start = System.nanoTime();
+        long next = start;
+        while (next - start < duration) {
+            final long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            final long intendedStart = next;
+            final long id = sequence++;
+            final Payloads.Payload payload = payloads.next();
+            inFlight.put(id, intendedStart);
+            senders.execute(() -> {
+                final String verdict = client.scan(payload);
+                // not recorded if already counted as unfinished
+                if (inFlight.remove(id) != null) {
+                    record(histograms.get(verdict), intendedStart);
+                }
+            });
+            next += (long) (-Math.log(1.0 - random.nextDouble()) * meanInterval);
+        }
+        senders.shutdown();
+        senders.awaitTermination(timeout + TimeUnit.NANOSECONDS.toMillis(duration), TimeUnit.MILLISECONDS);
+        senders.shutdownNow();
+        // requests still running, or never sent, at the end of the run are errors : leaving them out would hide the
+        // slowest ones. Their latency so far is recorded, a lower bound
+        long unfinished = 0;
+        for (Long id : inFlight.keySet()) {
+            final Long intendedStart = inFlight.remove(id);
+            if (intendedStart != null) {
+                record(histograms.get(ScanClient.ERROR), intendedStart);
+                unfinished++;
+            }
+        }
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        if (unfinished > 0) {
+            System.err.println(unfinished + " requests unfinished at the end of the run, counted as errors");
+        }
+
+        final LoadReport report = LoadReport.of(url, rate, elapsed, histograms, unfinished);
+        final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (options.containsKey("report")) {
+            mapper.writeValue(new File(options.get("report")), report);
+        }
+        System.out.println(mapper.writeValueAsString(report));
+
+        if (options.containsKey("baseline")) {
+            final LoadReport baseline = mapper.readValue(new File(options.get("baseline")), LoadReport.class);
+            final List<String> regressions = report.regressionsAgainst(baseline,
+                    Double.parseDouble(options.getOrDefault("tolerance", "0.1")));
+            if (!regressions.isEmpty()) {
+                regressions.forEach(regression -> System.err.println("REGRESSION " + regression));
+                System.exit(2);
+            }
+        }
+        System.exit(0);
+    }
+
+    // latency from the intended start, see coordinated omission
+    private static void record(final ConcurrentHistogram histogram, final long intendedStart) {
+        final long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+        histogram.recordValue(Math.min(latency, HIGHEST_LATENCY));
+    }
+}
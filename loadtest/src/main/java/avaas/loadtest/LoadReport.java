@@ -0,0 +1,218 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Machine readable result of a load test run. Latencies are in milliseconds.
+ */
+public class LoadReport {
+
+    /**
+     * Latency distribution of the requests which got a given verdict.
+     */
+    public static class Latency {
+
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        @JsonCreator
+        public Latency(@JsonProperty("count") long count,
+                       @JsonProperty("mean") double mean,
+                       @JsonProperty("p50") double p50,
+                       @JsonProperty("p90") double p90,
+                       @JsonProperty("p99") double p99,
+                       @JsonProperty("p999") double p999,
+                       @JsonProperty("max") double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * @param histogram latencies recorded in microseconds
+         */
+        public static Latency of(final Histogram histogram) {
+            return new Latency(histogram.getTotalCount(),
+                               histogram.getMean() / 1000.0,
+                               histogram.getValueAtPercentile(50.0) / 1000.0,
+                               histogram.getValueAtPercentile(90.0) / 1000.0,
+                               histogram.getValueAtPercentile(99.0) / 1000.0,
+                               histogram.getValueAtPercentile(99.9) / 1000.0,
+                               histogram.getMaxValue() / 1000.0);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+
+    private final String url;
+    private final double rate;
+    private final long requests;
+    private final long unfinished;
+    private final double elapsed;
+    private final double throughput;
+    private final Map<String, Latency> verdicts;
+
+    @JsonCreator
+    public LoadReport(@JsonProperty("url") String url,
+                      @JsonProperty("rate") double rate,
+                      @JsonProperty("requests") long requests,
+                      @JsonProperty("unfinished") long unfinished,
+                      @JsonProperty("elapsed") double elapsed,
+                      @JsonProperty("throughput") double throughput,
+                      @JsonProperty("verdicts") Map<String, Latency> verdicts) {
+        this.url = url;
+        this.rate = rate;
+        this.requests = requests;
+        this.unfinished = unfinished;
+        this.elapsed = elapsed;
+        this.throughput = throughput;
+        this.verdicts = verdicts;
+    }
+
+    /**
+     * @param unfinished requests which did not complete by the end of the run, already recorded as errors
+     */
+    public static LoadReport of(final String url, final double rate, final double elapsed,
+                                final Map<String, ? extends Histogram> histograms, final long unfinished) {
+        final Map<String, Latency> verdicts = new LinkedHashMap<>();
+        long requests = 0;
+        long errors = 0;
+        for (Map.Entry<String, ? extends Histogram> entry : histograms.entrySet()) {
+            final Latency latency = Latency.of(entry.getValue());
+            verdicts.put(entry.getKey(), latency);
+            requests += latency.getCount();
+            if (ScanClient.ERROR.equals(entry.getKey())) errors += latency.getCount();
+        }
+        return new LoadReport(url, rate, requests, unfinished, elapsed, (requests - errors) / elapsed, verdicts);
+    }
+
+    /**
+     * Compares this run against a baseline.
+     *
+     * @param tolerance accepted relative degradation, e.g. 0.1 for 10%
+     * @return a description of each regression, empty if none
+     */
+    public List<String> regressionsAgainst(final LoadReport baseline, final double tolerance) {
+        final List<String> regressions = new ArrayList<>();
+        if (throughput < baseline.getThroughput() * (1 - tolerance)) {
+            regressions.add(String.format("throughput %.1f req/s, baseline %.1f req/s", throughput, baseline.getThroughput()));
+        }
+        for (Map.Entry<String, Latency> entry : verdicts.entrySet()) {
+            final Latency base = baseline.getVerdicts().get(entry.getKey());
+            final Latency current = entry.getValue();
+            if (base == null || base.getCount() == 0 || current.getCount() == 0) continue;
+            if (current.getP99() > base.getP99() * (1 + tolerance)) {
+                regressions.add(String.format("%s p99 %.1fms, baseline %.1fms", entry.getKey(), current.getP99(), base.getP99()));
+            }
+            if (current.getP999() > base.getP999() * (1 + tolerance)) {
+                regressions.add(String.format("%s p99.9 %.1fms, baseline %.1fms", entry.getKey(), current.getP999(), base.getP999()));
+            }
+        }
+        final Latency baseErrors = baseline.getVerdicts().get(ScanClient.ERROR);
+        final Latency errors = verdicts.get(ScanClient.ERROR);
+        if (errors != null && errors.getCount() > 0 && (baseErrors == null
+                || (double) errors.getCount() / requests > (double) baseErrors.getCount() / baseline.getRequests() * (1 + tolerance))) {
+            regressions.add(String.format("%d errors out of %d requests", errors.getCount(), requests));
+        }
+        return regressions;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return target arrival rate in requests per second
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return requests which did not complete by the end of the run, included in the errors
+     */
+    public long getUnfinished() {
+        return unfinished;
+    }
+
+    /**
+     * @return run duration in seconds
+     */
+    public double getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return successful requests per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public Map<String, Latency> getVerdicts() {
+        return verdicts;
+    }
+}
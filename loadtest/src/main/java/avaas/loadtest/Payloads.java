@@ -0,0 +1,143 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.loadtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Source of files to upload : either a replayed corpus directory or synthetic files following a size distribution.
+ */
+public abstract class Payloads {
+
+    // PNG header, whitelisted by default so that synthetic files actually reach clamd
+    private static final byte[] PNG_MAGIC = new byte[] {(byte) 0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A};
+
+    /**
+     * A file to upload. Content is produced lazily, on the sender thread.
+     */
+    public interface Payload {
+        String getName();
+
+        byte[] getContent() throws IOException;
+    }
+
+    /**
+     * @return the next file to upload, must be cheap as it is called by the arrival scheduler
+     */
+    public abstract Payload next();
+
+    /**
+     * Replays all regular files of a directory, recursively, in random order.
+     */
+    public static Payloads fromCorpus(final Path directory) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No file in corpus " + directory);
+        }
+        return new Payloads() {
+            @Override
+            public Payload next() {
+                final Path file = files.get(ThreadLocalRandom.current().nextInt(files.size()));
+                return new Payload() {
+                    @Override
+                    public String getName() {
+                        return file.getFileName().toString();
+                    }
+
+                    @Override
+                    public byte[] getContent() throws IOException {
+                        return Files.readAllBytes(file);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Synthetic random files. Each file is unique so that the service can not coalesce concurrent uploads.
+     *
+     * @param distribution weighted sizes, e.g. "10K:70,1M:25,10M:5"
+     * @param magic prefix files with a whitelisted magic number
+     */
+    public static Payloads synthetic(final String distribution, final boolean magic) {
+        final List<Integer> sizes = new ArrayList<>();
+        final List<Integer> weights = new ArrayList<>();
+        int total = 0;
+        for (String entry : distribution.split(",")) {
+            final String[] sizeAndWeight = entry.trim().split(":");
+            sizes.add(parseSize(sizeAndWeight[0]));
+            final int weight = sizeAndWeight.length > 1 ? Integer.parseInt(sizeAndWeight[1].trim()) : 1;
+            total += weight;
+            weights.add(total);
+        }
+        final int totalWeight = total;
+        final byte[] base = new byte[sizes.stream().mapToInt(Integer::intValue).max().orElse(0)];
+        new Random(42).nextBytes(base);
+        if (magic) {
+            System.arraycopy(PNG_MAGIC, 0, base, 0, Math.min(PNG_MAGIC.length, base.length));
+        }
+        final AtomicLong sequence = new AtomicLong();
+        return new Payloads() {
+            @Override
+            public Payload next() {
+                final int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+                int i = 0;
+                while (weights.get(i) <= pick) i++;
+                final int size = sizes.get(i);
+                final long id = sequence.incrementAndGet();
+                return new Payload() {
+                    @Override
+                    public String getName() {
+                        return "synthetic-" + id + ".bin";
+                    }
+
+                    @Override
+                    public byte[] getContent() {
+                        final byte[] content = Arrays.copyOf(base, size);
+                        final int offset = magic ? PNG_MAGIC.length : 0;
+                        if (content.length >= offset + 8) {
+                            ByteBuffer.wrap(content, offset, 8).putLong(id);
+                        }
+                        return content;
+                    }
+                };
+            }
+        };
+    }
+
+    static int parseSize(final String size) {
+        final String s = size.trim().toUpperCase();
+        if (s.endsWith("K")) return Integer.parseInt(s.substring(0, s.length() - 1)) * 1024;
+        if (s.endsWith("M")) return Integer.parseInt(s.substring(0, s.length() - 1)) * 1024 * 1024;
+        return Integer.parseInt(s);
+    }
+}
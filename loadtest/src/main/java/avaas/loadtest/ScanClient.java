@@ -0,0 +1,111 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Uploads a file to {@code /api/v1/scan} and classifies the response.
+ */
+public class ScanClient {
+
+    public static final String BLACKLIST = "blacklist";
+    public static final String INFECTED = "infected";
+    public static final String CLEAN = "clean";
+    public static final String ERROR = "error";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final URL url;
+    private final int timeout;
+    private final Map<String, String> headers;
+
+    public ScanClient(URL url, int timeout, Map<String, String> headers) {
+        this.url = url;
+        this.timeout = timeout;
+        this.headers = headers;
+    }
+
+    /**
+     * @return the verdict : {@link #BLACKLIST}, {@link #INFECTED}, {@link #CLEAN} or {@link #ERROR}
+     */
+    public String scan(final Payloads.Payload payload) {
+        try {
+            final byte[] content = payload.getContent();
+            final String boundary = UUID.randomUUID().toString();
+            final byte[] head = ("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"name\"\r\n\r\n"
+                    + payload.getName() + "\r\n"
+                    + "--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"" + payload.getName() + "\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            final byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.setFixedLengthStreamingMode((long) head.length + content.length + tail.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(head);
+                out.write(content);
+                out.write(tail);
+            }
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                drain(connection.getErrorStream());
+                return ERROR;
+            }
+            final JsonNode response;
+            try (InputStream in = connection.getInputStream()) {
+                response = mapper.readTree(in);
+            }
+            if (response.path("blacklist").asBoolean()) return BLACKLIST;
+            if ("yes".equals(response.path("infected").asText())) return INFECTED;
+            return CLEAN;
+        } catch (IOException e) {
+            return ERROR;
+        }
+    }
+
+    // reading error responses fully allows the connection to be reused
+    private static void drain(final InputStream in) throws IOException {
+        if (in == null) return;
+        try (InputStream is = in) {
+            final byte[] buf = new byte[4096];
+            while (is.read(buf) >= 0) {
+                // discard
+            }
+        }
+    }
+}
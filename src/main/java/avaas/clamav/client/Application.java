@@ -17,12 +17,11 @@
 
  package avaas.clamav.client;
 
+import avaas.metrics.OpenTsdbExporter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.jvm.GarbageCollectorMetricSet;
 import com.codahale.metrics.jvm.MemoryUsageGaugeSet;
 import com.codahale.metrics.jvm.ThreadStatesGaugeSet;
-import com.github.sps.metrics.OpenTsdbReporter;
-import com.github.sps.metrics.opentsdb.OpenTsdb;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import org.springframework.beans.factory.annotation.Value;
@@ -32,28 +31,22 @@ import org.springframework.boot.actuate.autoconfigure.ExportMetricReader;
 import org.springframework.boot.actuate.metrics.reader.MetricReader;
 import org.springframework.boot.actuate.metrics.reader.MetricRegistryMetricReader;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.servlet.MultipartConfigFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
-import springfox.documentation.builders.ApiInfoBuilder;
-import springfox.documentation.service.ApiInfo;
-import springfox.documentation.spi.DocumentationType;
-import springfox.documentation.spring.web.plugins.Docket;
-import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 import javax.servlet.MultipartConfigElement;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static springfox.documentation.builders.PathSelectors.regex;
-
 @Configuration
 @EnableAutoConfiguration
-@EnableSwagger2
 @ComponentScan({"avaas"})
 /**
  * Spring Boot application which acts as a REST endpoint for clamd server.
@@ -66,18 +59,86 @@ public class Application {
     private String maxrequestsize;
     @Value("${opentsdb.url}")
     private String opentsdbUrl;
+    @Value("${opentsdb.period}")
+    private long opentsdbPeriod;
+    @Value("${opentsdb.batchsize}")
+    private int opentsdbBatchSize;
+    @Value("${opentsdb.buffersize}")
+    private int opentsdbBufferSize;
+    @Value("${opentsdb.gzip}")
+    private boolean opentsdbGzip;
+    @Value("${opentsdb.timeout}")
+    private int opentsdbTimeout;
 
     public static void main(String[] args) {
         SpringApplication app = new SpringApplication(Application.class);
         Map<String, Object> defaults = new HashMap<String, Object>();
         defaults.put("clamd.host", "127.0.0.1");
         defaults.put("clamd.port", 3310);
+        defaults.put("clamd.socket", "");
         defaults.put("clamd.timeout", 2000);
+        defaults.put("clamd.connecttimeout", 1000);
+        defaults.put("clamd.writetimeout", "${clamd.timeout}");
+        defaults.put("clamd.deadline", 0);
+        defaults.put("clamd.lane.threshold", 1024 * 1024);
+        defaults.put("clamd.lane.small.concurrency", 16);
+        defaults.put("clamd.lane.small.timeout", "${clamd.timeout}");
+        defaults.put("clamd.lane.small.wait", 500);
+        defaults.put("clamd.lane.large.concurrency", 4);
+        defaults.put("clamd.lane.large.timeout", 20000);
+        defaults.put("clamd.lane.large.wait", 5000);
+        defaults.put("clamd.batch.enabled", false);
+        defaults.put("clamd.batch.maxfilesize", 64 * 1024);
+        defaults.put("clamd.batch.maxfiles", 16);
+        defaults.put("clamd.batch.maxbytes", 1024 * 1024);
+        defaults.put("clamd.batch.linger", 5);
+        defaults.put("clamd.batch.timeout", 5000);
+        defaults.put("clamd.batch.dispatchers", "${clamd.lane.small.concurrency}");
+        defaults.put("clamd.batch.queue", 1024);
         defaults.put("clamd.maxfilesize", "20000KB");
         defaults.put("clamd.maxrequestsize", "20000KB");
+        defaults.put("clamd.probe.interval", 5000);
+        defaults.put("clamd.warmup.connections", 4);
+        defaults.put("clamd.warmup.retry", 1000);
+        defaults.put("frontend.port", 0);
+        defaults.put("frontend.threads", 32);
+        defaults.put("frontend.timeout", 30000);
+        defaults.put("frontend.maxsize", 20000 * 1024);
+        defaults.put("avaas.fast-startup", false);
+        defaults.put("swagger.enabled", true);
+        defaults.put("opentsdb.enabled", true);
         defaults.put("opentsdb.url", "http://localhost:4242");
+        defaults.put("opentsdb.period", 5);
+        defaults.put("opentsdb.batchsize", 500);
+        defaults.put("opentsdb.buffersize", 20000);
+        defaults.put("opentsdb.gzip", true);
+        defaults.put("opentsdb.timeout", 2000);
+        defaults.put("prometheus.enabled", true);
+        defaults.put("metrics.maxsignatures", 200);
         defaults.put("ssl.cert","/opt/app-root/tls/httpd.crt");
         defaults.put("ssl.key","/opt/app-root/tls/httpd.key");
+        defaults.put("ssl.openssl", false);
+        defaults.put("ssl.http2", false);
+        defaults.put("ssl.ciphers", "");
+        defaults.put("ssl.protocols", "TLSv1.2");
+        defaults.put("ssl.sessioncachesize", 20480);
+        defaults.put("ssl.sessiontimeout", 3600);
+        defaults.put("scanner.threads", 32);
+        defaults.put("scanner.hash.file", "/etc/avaas/hashes.txt");
+        defaults.put("scanner.pattern.enabled", false);
+        defaults.put("scanner.pattern.file", "/etc/avaas/patterns.txt");
+        defaults.put("scanner.pattern.maxstates", 64 * 1024);
+        defaults.put("tenant.enabled", false);
+        defaults.put("tenant.file", "/etc/avaas/tenants.txt");
+        defaults.put("tenant.max", 100);
+        defaults.put("tenant.default.weight", 1);
+        defaults.put("tenant.default.inflight", 0);
+        defaults.put("tenant.default.bytespersecond", 0);
+        defaults.put("jfr.autostart", false);
+        defaults.put("jfr.settings", "default");
+        defaults.put("jfr.maxsize", 100 * 1024 * 1024);
+        defaults.put("jfr.maxage", 3600);
+        defaults.put("jfr.threshold", 0);
         app.setDefaultProperties(defaults);
         app.setBannerMode(Banner.Mode.OFF);
         app.run(args);
@@ -108,6 +169,12 @@ public class Application {
         metricRegistry.register("jvm.mem",new MemoryUsageGaugeSet());
         metricRegistry.register("jvm.thread-states",new ThreadStatesGaugeSet());
 
+        return metricRegistry;
+    }
+
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnProperty(name = "opentsdb.enabled", havingValue = "true")
+    public OpenTsdbExporter openTsdbExporter() throws IOException {
         final ImmutableMap.Builder<String, String> tagBuilder = ImmutableMap.builder();
 
         // Attempt to ready current dc
@@ -125,33 +192,10 @@ public class Application {
         }
 
         // On enregistre le rapporteur OpenTSDB
-        OpenTsdbReporter.forRegistry(metricRegistry)
-                .withBatchSize(5)
-                .withTags(tagBuilder.build())
-                .build(OpenTsdb.forService(opentsdbUrl).create())
-                .start(5L, TimeUnit.SECONDS);
-
-        return metricRegistry;
-    }
-
-
-    @Bean
-    public Docket newsApi() {
-        return new Docket(DocumentationType.SWAGGER_2)
-                .groupName("avaas")
-                .apiInfo(apiInfo())
-                .select()
-                .paths(regex("/api.*"))
-                .build();
-    }
-
-    private ApiInfo apiInfo() {
-        return new ApiInfoBuilder()
-                .title("AVAAS : AntiVirus As A Service")
-                .description("Antivirus REST service")
-                .license("GNU Lesser General Public License 2.1")
-                .version("1.0")
-                .build();
+        final OpenTsdbExporter exporter = new OpenTsdbExporter(metricRegistry(), opentsdbUrl, tagBuilder.build(),
+                opentsdbBatchSize, opentsdbBufferSize, opentsdbGzip, opentsdbTimeout);
+        exporter.start(opentsdbPeriod, TimeUnit.SECONDS);
+        return exporter;
     }
 
 }
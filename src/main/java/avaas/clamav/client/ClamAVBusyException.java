@@ -0,0 +1,33 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown if no clamd slot could be obtained in time, i.e. the scan lane is saturated.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ClamAVBusyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ClamAVBusyException(String msg) {
+        super(msg);
+    }
+}
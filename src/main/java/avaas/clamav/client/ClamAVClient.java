@@ -17,35 +17,132 @@
 
 package avaas.clamav.client;
 
+import avaas.jfr.ClamdTrace;
+import avaas.jfr.JfrEvents;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple client for ClamAV's clamd scanner. Provides straightforward instream scanning.
+ * <p>
+ * Connecting, writing a chunk and waiting for a reply have their own timeouts, all of them bounded by an
+ * optional {@link Deadline}.
  */
 public class ClamAVClient {
 
     private static final Logger logger = LoggerFactory.getLogger(ClamAVClient.class);
 
+    // blocking socket writes have no timeout : a write which takes too long gets its socket closed
+    private static final ScheduledExecutorService writeWatchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "avaas-clamd-write-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @FunctionalInterface
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    /**
+     * A raw connection to clamd, for callers which speak the clamd protocol themselves.
+     * Data is written through a channel so that direct buffers can be handed to the socket without copy.
+     */
+    public static class Connection implements Closeable {
+
+        private final Socket socket;
+        private final WritableByteChannel out;
+        private final InputStream in;
+        private final ByteBuffer chunkLength = ByteBuffer.allocateDirect(4);
+
+        private Connection(Socket socket, WritableByteChannel out, InputStream in) {
+            this.socket = socket;
+            this.out = out;
+            this.in = in;
+        }
+
+        /**
+         * Send a command, e.g. "zINSTREAM\0".
+         */
+        public void writeCommand(String command) throws IOException {
+            write(ByteBuffer.wrap(asBytes(command)));
+        }
+
+        /**
+         * Send an INSTREAM chunk length, zero terminates the stream.
+         */
+        public void writeChunkLength(int length) throws IOException {
+            chunkLength.clear();
+            chunkLength.putInt(length);
+            chunkLength.flip();
+            write(chunkLength);
+        }
+
+        /**
+         * Send all the remaining bytes of the buffer.
+         */
+        public void write(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        }
+
+        /**
+         * @return the next NULL terminated reply
+         */
+        public byte[] readReply() throws IOException {
+            return ClamAVClient.readReply(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
     private String hostName;
     private int port;
+    private File socketFile;
+    private int connectTimeout;
+    private int writeTimeout;
     private int timeout;
 
     // "do not exceed StreamMaxLength as defined in clamd.conf, otherwise clamd will reply with INSTREAM size limit exceeded and close the connection."
     private static final int CHUNK_SIZE = 256 * 1024;
     private static final int DEFAULT_TIMEOUT = 500;
     private static final int PONG_REPLY_LEN = 4;
+    // a socket timeout this close to the deadline is the deadline expiring
+    private static final long TIMER_SLACK = 10;
 
     /**
      * @param hostName The hostname of the server running clamav-daemon
@@ -53,11 +150,24 @@ public class ClamAVClient {
      * @param timeout zero means infinite timeout. Not a good idea, but will be accepted.
      */
     public ClamAVClient(String hostName, int port, int timeout)  {
-        if (timeout < 0) {
+        this(hostName, port, timeout, timeout, timeout);
+    }
+
+    /**
+     * @param hostName The hostname of the server running clamav-daemon
+     * @param port The port that clamav-daemon listens to
+     * @param connectTimeout maximum time to establish the connection, zero means infinite
+     * @param writeTimeout maximum time to write a single chunk, zero means infinite
+     * @param timeout maximum time to wait for a reply, zero means infinite
+     */
+    public ClamAVClient(String hostName, int port, int connectTimeout, int writeTimeout, int timeout) {
+        if (connectTimeout < 0 || writeTimeout < 0 || timeout < 0) {
             throw new IllegalArgumentException("Negative timeout value does not make sense.");
         }
         this.hostName = hostName;
         this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.writeTimeout = writeTimeout;
         this.timeout = timeout;
     }
 
@@ -65,13 +175,37 @@ public class ClamAVClient {
         this(hostName, port, DEFAULT_TIMEOUT);
     }
 
+    /**
+     * @param socketFile The unix domain socket clamav-daemon listens to (LocalSocket in clamd.conf).
+     * @param timeout zero means infinite timeout. Not a good idea, but will be accepted.
+     */
+    public ClamAVClient(File socketFile, int timeout) {
+        this(socketFile, timeout, timeout, timeout);
+    }
+
+    /**
+     * @param socketFile The unix domain socket clamav-daemon listens to (LocalSocket in clamd.conf).
+     * @param connectTimeout maximum time to establish the connection, zero means infinite
+     * @param writeTimeout maximum time to write a single chunk, zero means infinite
+     * @param timeout maximum time to wait for a reply, zero means infinite
+     */
+    public ClamAVClient(File socketFile, int connectTimeout, int writeTimeout, int timeout) {
+        if (connectTimeout < 0 || writeTimeout < 0 || timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout value does not make sense.");
+        }
+        this.socketFile = socketFile;
+        this.connectTimeout = connectTimeout;
+        this.writeTimeout = writeTimeout;
+        this.timeout = timeout;
+    }
+
     /**
      * Run PING command to clamd to test it is responding.
      *
      * @return true if the server responded with proper ping reply.
      */
     public boolean ping() throws IOException {
-        try (Socket s = new Socket(hostName,port); OutputStream outs = s.getOutputStream()) {
+        try (Socket s = connect(Deadline.none()); OutputStream outs = s.getOutputStream()) {
             s.setSoTimeout(timeout);
             outs.write(asBytes("zPING\0"));
             outs.flush();
@@ -87,6 +221,22 @@ public class ClamAVClient {
         }
     }
 
+    /**
+     * Run VERSION command to clamd.
+     *
+     * @return the server version line, e.g. "ClamAV 0.99.2/23456/Mon Jun 12 09:12:24 2017"
+     */
+    public String version() throws IOException {
+        try (Socket s = connect(Deadline.none()); OutputStream outs = s.getOutputStream()) {
+            s.setSoTimeout(timeout);
+            outs.write(asBytes("zVERSION\0"));
+            outs.flush();
+            try (InputStream clamIs = new BufferedInputStream(s.getInputStream())) {
+                return new String(readReply(clamIs), StandardCharsets.US_ASCII);
+            }
+        }
+    }
+
     /**
      * Streams the given data to the server in chunks. The whole data is not kept in memory.
      * This method is preferred if you don't want to keep the data in memory, for instance by scanning a file on disk.
@@ -99,12 +249,52 @@ public class ClamAVClient {
      * @return server reply
      */
     public byte[] scan(InputStream is) throws IOException {
-        try (Socket s = new Socket(hostName,port); OutputStream outs = new BufferedOutputStream(s.getOutputStream())) {
-            s.setSoTimeout(timeout);
+        return scan(is, Deadline.none());
+    }
 
+    /**
+     * Same as {@link #scan(InputStream)}, every step being bounded by the given deadline.
+     *
+     * @param is data to scan. Not closed by this method!
+     * @param deadline request deadline
+     * @return server reply
+     * @throws ClamAVDeadlineExceededException if the deadline expires before the reply is received
+     */
+    public byte[] scan(InputStream is, Deadline deadline) throws IOException {
+        final ClamdTrace event = newEvent("INSTREAM");
+        event.setFiles(1);
+        event.setSha256(MDC.get("sha256"));
+        try {
+            final byte[] reply = doScan(is, deadline, event);
+            event.setVerdict(JfrEvents.verdict(new String(reply, StandardCharsets.US_ASCII)));
+            return reply;
+        } catch (SocketTimeoutException e) {
+            event.setVerdict(JfrEvents.TIMEOUT);
+            if (deadline.isExpiredWithin(TIMER_SLACK)) {
+                throw new ClamAVDeadlineExceededException("Deadline exceeded while scanning", e);
+            }
+            throw e;
+        } catch (ClamAVDeadlineExceededException e) {
+            event.setVerdict(JfrEvents.TIMEOUT);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            event.setVerdict(JfrEvents.ERROR);
+            throw e;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private byte[] doScan(InputStream is, Deadline deadline, ClamdTrace event) throws IOException {
+        long start = System.nanoTime();
+        try (Socket s = connect(deadline); OutputStream outs = new BufferedOutputStream(s.getOutputStream())) {
+            event.setConnectTime(System.nanoTime() - start);
+            start = System.nanoTime();
             // handshake
-            outs.write(asBytes("zINSTREAM\0"));
-            outs.flush();
+            timedWrite(s, deadline, () -> {
+                outs.write(asBytes("zINSTREAM\0"));
+                outs.flush();
+            });
             byte[] chunk = new byte[CHUNK_SIZE];
 
             try (InputStream clamIs = s.getInputStream()) {
@@ -115,8 +305,12 @@ public class ClamAVClient {
                     // integer in network byte order and <data> is the actual chunk. Streaming is terminated by sending a zero-length chunk.
                     byte[] chunkSize = ByteBuffer.allocate(4).putInt(read).array();
 
-                    outs.write(chunkSize);
-                    outs.write(chunk, 0, read);
+                    final int length = read;
+                    timedWrite(s, deadline, () -> {
+                        outs.write(chunkSize);
+                        outs.write(chunk, 0, length);
+                    });
+                    event.addSize(length);
                     if (clamIs.available() > 0) {
                         // reply from server before scan command has been terminated.
                         byte[] reply = assertSizeLimit(readAll(clamIs));
@@ -126,10 +320,17 @@ public class ClamAVClient {
                 }
 
                 // terminate scan
-                outs.write(new byte[]{0,0,0,0});
-                outs.flush();
+                timedWrite(s, deadline, () -> {
+                    outs.write(new byte[]{0,0,0,0});
+                    outs.flush();
+                });
+                event.addWriteTime(System.nanoTime() - start);
+                start = System.nanoTime();
                 // read reply
-                return assertSizeLimit(readAll(clamIs));
+                s.setSoTimeout(budget(timeout, deadline, "waiting for clamd reply"));
+                final byte[] reply = readAll(clamIs);
+                event.addReplyTime(System.nanoTime() - start);
+                return assertSizeLimit(reply);
             }
         }
     }
@@ -146,6 +347,172 @@ public class ClamAVClient {
         }
     }
 
+    /**
+     * Reply to one of the contents of a {@link #scanSession(List) session} : either the clamd reply,
+     * or the error which prevented getting it.
+     */
+    public static final class SessionReply {
+        private final byte[] reply;
+        private final Exception error;
+
+        private SessionReply(byte[] reply, Exception error) {
+            this.reply = reply;
+            this.error = error;
+        }
+
+        // an error reply is a failure of this content only
+        static SessionReply of(final byte[] reply) {
+            final String r = new String(reply, StandardCharsets.US_ASCII);
+            if (r.startsWith("INSTREAM size limit exceeded.")) {
+                return failed(new ClamAVSizeLimitException("Clamd size limit exceeded. Full reply from server: " + r));
+            }
+            if (r.endsWith("ERROR")) {
+                return failed(new IOException("Scan failed. Reply from server: " + r));
+            }
+            return new SessionReply(reply, null);
+        }
+
+        static SessionReply failed(final Exception error) {
+            return new SessionReply(null, error);
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * @return the server reply
+         * @throws IOException or a {@link RuntimeException} if this content could not be scanned
+         */
+        public byte[] get() throws IOException {
+            if (error instanceof IOException) throw (IOException) error;
+            if (error instanceof RuntimeException) throw (RuntimeException) error;
+            return reply;
+        }
+    }
+
+    /**
+     * Scans several contents through a single clamd connection using an IDSESSION.
+     * Each content is sent as its own INSTREAM command, replies are read one by one and returned in order
+     * without their session request id.
+     * <p>
+     * A failure only fails the content being scanned : clamd ends a session on an error reply, the following contents
+     * are sent through a new one. The remaining contents fail too if a new session fails on its first content.
+     *
+     * @param contents data to scan
+     * @return server replies or errors, in the same order as the contents
+     */
+    public List<SessionReply> scanSession(List<byte[]> contents) {
+        return scanSession(contents, Collections.emptyList(), Deadline.none());
+    }
+
+    /**
+     * Same as {@link #scanSession(List)}, every step being bounded by the given deadline.
+     *
+     * @param contents data to scan
+     * @param sha256s SHA-256 of the contents when known, recorded by the flight recorder
+     * @param deadline session deadline
+     * @return server replies or errors, in the same order as the contents
+     */
+    public List<SessionReply> scanSession(List<byte[]> contents, List<String> sha256s, Deadline deadline) {
+        final ClamdTrace event = newEvent("IDSESSION");
+        event.setFiles(contents.size());
+        event.setSha256s(sha256s);
+        final List<SessionReply> replies = new ArrayList<>(contents.size());
+        while (replies.size() < contents.size()) {
+            final int first = replies.size();
+            try {
+                doScanSession(contents, replies, deadline, event);
+            } catch (IOException | RuntimeException e) {
+                final Exception error = e instanceof SocketTimeoutException && deadline.isExpiredWithin(TIMER_SLACK)
+                        ? new ClamAVDeadlineExceededException("Deadline exceeded while scanning a session", e) : e;
+                if (replies.size() == first) {
+                    logger.warn("IDSESSION failed on its first file, failing the {} remaining files", contents.size() - first, error);
+                    while (replies.size() < contents.size()) {
+                        replies.add(SessionReply.failed(error));
+                    }
+                } else if (replies.size() < contents.size()) {
+                    replies.add(SessionReply.failed(error));
+                }
+            }
+        }
+        // the first verdict which is not clean stands for the session
+        String verdict = JfrEvents.CLEAN;
+        for (SessionReply reply : replies) {
+            if (reply.isFailed()) {
+                verdict = reply.error instanceof ClamAVDeadlineExceededException ? JfrEvents.TIMEOUT : JfrEvents.ERROR;
+            } else {
+                verdict = JfrEvents.verdict(new String(reply.reply, StandardCharsets.US_ASCII));
+            }
+            if (!JfrEvents.CLEAN.equals(verdict)) break;
+        }
+        event.setVerdict(verdict);
+        event.commit();
+        return replies;
+    }
+
+    // scans contents from the first one without a reply, until all are scanned or clamd replies with an error
+    private void doScanSession(List<byte[]> contents, List<SessionReply> replies, Deadline deadline, ClamdTrace event) throws IOException {
+        long start = System.nanoTime();
+        try (Socket s = connect(deadline); OutputStream outs = new BufferedOutputStream(s.getOutputStream())) {
+            event.setConnectTime(System.nanoTime() - start);
+
+            outs.write(asBytes("zIDSESSION\0"));
+            try (InputStream clamIs = new BufferedInputStream(s.getInputStream())) {
+                while (replies.size() < contents.size()) {
+                    final byte[] content = contents.get(replies.size());
+                    start = System.nanoTime();
+                    outs.write(asBytes("zINSTREAM\0"));
+                    int offset = 0;
+                    while (offset < content.length) {
+                        final int from = offset;
+                        final int len = Math.min(CHUNK_SIZE, content.length - offset);
+                        timedWrite(s, deadline, () -> {
+                            outs.write(ByteBuffer.allocate(4).putInt(len).array());
+                            outs.write(content, from, len);
+                        });
+                        offset += len;
+                    }
+                    timedWrite(s, deadline, () -> {
+                        outs.write(new byte[]{0,0,0,0});
+                        outs.flush();
+                    });
+                    event.addSize(content.length);
+                    event.addWriteTime(System.nanoTime() - start);
+                    start = System.nanoTime();
+                    s.setSoTimeout(budget(timeout, deadline, "waiting for clamd reply"));
+                    final byte[] reply = readReply(clamIs);
+                    event.addReplyTime(System.nanoTime() - start);
+                    final SessionReply sessionReply = SessionReply.of(stripSessionId(reply));
+                    replies.add(sessionReply);
+                    if (sessionReply.isFailed()) return;
+                }
+                outs.write(asBytes("zEND\0"));
+                outs.flush();
+            }
+        }
+    }
+
+    /**
+     * Opens a raw connection to clamd. The caller is responsible for closing it.
+     */
+    public Connection open() throws IOException {
+        if (socketFile != null) {
+            final Socket s = connect(Deadline.none());
+            s.setSoTimeout(timeout);
+            return new Connection(s, Channels.newChannel(s.getOutputStream()), new BufferedInputStream(s.getInputStream()));
+        }
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(hostName, port), connectTimeout);
+            channel.socket().setSoTimeout(timeout);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Connection(channel.socket(), channel, new BufferedInputStream(channel.socket().getInputStream()));
+    }
+
     /**
      * Interpret the result from a  ClamAV scan, and determine if the result means the data is clean
      *
@@ -166,11 +533,101 @@ public class ClamAVClient {
         return reply;
     }
 
+    // begins a flight recorder event for a command sent to this clamd
+    private ClamdTrace newEvent(final String command) {
+        final ClamdTrace event = JfrEvents.clamd();
+        event.begin();
+        event.setCommand(command);
+        event.setBackend(socketFile != null ? socketFile.getPath() : hostName + ":" + port);
+        return event;
+    }
+
+    // opens a connection to clamd, through its unix domain socket if one is configured
+    private Socket connect(Deadline deadline) throws IOException {
+        final int budget = budget(connectTimeout, deadline, "connecting to clamd");
+        final Socket s;
+        final SocketAddress address;
+        if (socketFile != null) {
+            s = AFUNIXSocket.newInstance();
+            address = new AFUNIXSocketAddress(socketFile);
+        } else {
+            s = new Socket();
+            address = new InetSocketAddress(hostName, port);
+        }
+        try {
+            s.connect(address, budget);
+            s.setSoTimeout(budget(timeout, deadline, "talking to clamd"));
+        } catch (SocketTimeoutException e) {
+            s.close();
+            if (deadline.isExpiredWithin(TIMER_SLACK)) {
+                throw new ClamAVDeadlineExceededException("Deadline exceeded while connecting to clamd", e);
+            }
+            throw e;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        return s;
+    }
+
+    // runs a write, closing the socket if it does not complete within the write budget
+    private void timedWrite(final Socket s, final Deadline deadline, final Write write) throws IOException {
+        final int budget = budget(writeTimeout, deadline, "writing to clamd");
+        if (budget == 0) {
+            write.run();
+            return;
+        }
+        final ScheduledFuture<?> guard = writeWatchdog.schedule(() -> {
+            try {
+                s.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close clamd socket", e);
+            }
+        }, budget, TimeUnit.MILLISECONDS);
+        try {
+            write.run();
+        } catch (IOException e) {
+            if (!guard.cancel(false)) throw new SocketTimeoutException("Write to clamd took more than " + budget + "ms");
+            throw e;
+        }
+        if (!guard.cancel(false)) throw new SocketTimeoutException("Write to clamd took more than " + budget + "ms");
+    }
+
+    // timeout bounded by the deadline, fails right away if the deadline is already expired
+    private static int budget(int timeout, Deadline deadline, String step) {
+        deadline.check(step);
+        return deadline.bound(timeout);
+    }
+
     // byte conversion based on ASCII character set regardless of the current system locale
     private static byte[] asBytes(String s) {
         return s.getBytes(StandardCharsets.US_ASCII);
     }
 
+    // removes the "<id>: " prefix clamd adds to replies within an IDSESSION
+    static byte[] stripSessionId(byte[] reply) {
+        for (int i = 0; i < reply.length - 1; i++) {
+            if (reply[i] == ':' && reply[i + 1] == ' ') {
+                return Arrays.copyOfRange(reply, i + 2, reply.length);
+            }
+            if (reply[i] < '0' || reply[i] > '9') break;
+        }
+        return reply;
+    }
+
+    // reads a single NULL terminated reply, the terminator is not returned
+    private static byte[] readReply(InputStream is) throws IOException {
+        ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) > 0) {
+            tmp.write(b);
+        }
+        if (b < 0 && tmp.size() == 0) {
+            throw new IOException("Connection closed by clamd before reply");
+        }
+        return tmp.toByteArray();
+    }
+
     // reads all available bytes from the stream
     private static byte[] readAll(InputStream is) throws IOException {
         ByteArrayOutputStream tmp = new ByteArrayOutputStream();
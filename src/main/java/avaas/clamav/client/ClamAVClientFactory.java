@@ -0,0 +1,84 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+
+/**
+ * Creates {@link ClamAVClient} instances pointing to the configured clamd server.
+ * <p>
+ * If {@code clamd.socket} is set, clamd is reached through this unix domain socket instead of TCP,
+ * which is cheaper when clamd runs next to the service (e.g. as a sidecar).
+ */
+@Component
+public class ClamAVClientFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClamAVClientFactory.class);
+
+    private final String hostname;
+    private final int port;
+    private final File socketFile;
+    private final int connectTimeout;
+    private final int writeTimeout;
+    private final int timeout;
+
+    @Autowired
+    public ClamAVClientFactory(@Value("${clamd.host}") String hostname,
+                               @Value("${clamd.port}") int port,
+                               @Value("${clamd.socket}") String socket,
+                               @Value("${clamd.connecttimeout}") int connectTimeout,
+                               @Value("${clamd.writetimeout}") int writeTimeout,
+                               @Value("${clamd.timeout}") int timeout) {
+        this.hostname = hostname;
+        this.port = port;
+        this.socketFile = Strings.isNullOrEmpty(socket) ? null : new File(socket);
+        this.connectTimeout = connectTimeout;
+        this.writeTimeout = writeTimeout;
+        this.timeout = timeout;
+        if (socketFile != null) {
+            logger.info("clamd reached through unix domain socket {}", socketFile.getAbsoluteFile());
+        } else {
+            logger.info("clamd reached through tcp on {}:{}", hostname, port);
+        }
+    }
+
+    /**
+     * @return a client using the default clamd timeout
+     */
+    public ClamAVClient create() {
+        return create(timeout);
+    }
+
+    /**
+     * @param timeout reply timeout in milliseconds, connect and write timeouts are the configured ones
+     * @return a client using the given timeout
+     */
+    public ClamAVClient create(int timeout) {
+        if (socketFile != null) {
+            return new ClamAVClient(socketFile, connectTimeout, writeTimeout, timeout);
+        }
+        return new ClamAVClient(hostname, port, connectTimeout, writeTimeout, timeout);
+    }
+}
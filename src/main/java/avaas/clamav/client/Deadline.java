@@ -0,0 +1,116 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of a request. Every step of a scan (waiting for a clamd slot, connecting, writing a chunk,
+ * waiting for the reply) is bounded by what is left of it, and no step starts once it is expired.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(false, 0L);
+
+    private final boolean set;
+    private final long expiresAt;
+
+    private Deadline(boolean set, long expiresAt) {
+        this.set = set;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return a deadline which never expires
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * @param millis budget in milliseconds from now
+     */
+    public static Deadline after(long millis) {
+        return after(millis, System.nanoTime());
+    }
+
+    /**
+     * @param millis budget in milliseconds
+     * @param since {@link System#nanoTime()} the budget starts from, e.g. when the request was received
+     */
+    public static Deadline after(long millis, long since) {
+        return new Deadline(true, since + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    public boolean isSet() {
+        return set;
+    }
+
+    public boolean isExpired() {
+        return isExpiredWithin(0L);
+    }
+
+    /**
+     * Socket timers are not as precise as {@link System#nanoTime()} : a socket timeout bounded by the deadline may
+     * fire slightly before it, and must still be reported as the deadline expiring.
+     *
+     * @param millis tolerance in milliseconds
+     * @return true if the deadline is expired or expires within the given time
+     */
+    public boolean isExpiredWithin(long millis) {
+        return set && expiresAt - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * @return remaining budget in milliseconds, rounded up so that a timeout set from it does not fire before the
+     * deadline, {@link Long#MAX_VALUE} if no deadline is set
+     */
+    public long remaining() {
+        if (!set) return Long.MAX_VALUE;
+        final long nanos = expiresAt - System.nanoTime();
+        return nanos <= 0 ? 0L : (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return the deadline which expires last, a deadline which never expires if any of them does not
+     */
+    public Deadline latest(Deadline other) {
+        if (!set || !other.set) return NONE;
+        return expiresAt - other.expiresAt >= 0 ? this : other;
+    }
+
+    /**
+     * @param timeout a socket timeout in milliseconds, zero meaning infinite
+     * @return the timeout, shortened to the remaining budget
+     */
+    public int bound(int timeout) {
+        if (!set) return timeout;
+        final long remaining = Math.max(1L, remaining());
+        return (int) (timeout == 0 ? Math.min(remaining, Integer.MAX_VALUE) : Math.min(timeout, remaining));
+    }
+
+    /**
+     * @param step what is about to be done, for the error message
+     * @throws ClamAVDeadlineExceededException if the deadline is expired
+     */
+    public void check(String step) {
+        if (isExpired()) {
+            throw new ClamAVDeadlineExceededException("Deadline exceeded before " + step);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fast path for small files : scans are grouped and sent to clamd through a single IDSESSION connection,
+ * which saves a connection setup per file for high volume small uploads.
+ * <p>
+ * A batch is flushed as soon as it holds {@code clamd.batch.maxfiles} files or {@code clamd.batch.maxbytes} bytes,
+ * or when {@code clamd.batch.linger} milliseconds elapsed since its first file was queued.
+ * Sessions are run in the small {@link ScanLane} and thus share its clamd slots, bounded by the latest deadline of
+ * their files. Files whose deadline expired or whose caller gave up while queued are left out.
+ * <p>
+ * {@code clamd.batch.dispatchers} sessions run at once, as many as the small lane slots by default. At most
+ * {@code clamd.batch.queue} files wait for a session : when the queue is full, small files are scanned on their own.
+ */
+@Component
+public class ScanBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanBatcher.class);
+
+    // sessions mix the files of several tenants, they are queued for a lane slot in a flow of their own
+    private static final String FLOW = "batch";
+
+    private static class Pending {
+        private final byte[] content;
+        private final String sha256;
+        private final Deadline deadline;
+        private final CompletableFuture<byte[]> reply = new CompletableFuture<>();
+
+        private Pending(byte[] content, String sha256, Deadline deadline) {
+            this.content = content;
+            this.sha256 = sha256;
+            this.deadline = deadline;
+        }
+
+        // abandoned by its caller, or completed as expired
+        private boolean isDropped() {
+            if (!reply.isDone() && deadline.isExpired()) {
+                reply.completeExceptionally(new ClamAVDeadlineExceededException("Deadline exceeded while waiting for a batched scan"));
+            }
+            return reply.isDone();
+        }
+    }
+
+    private final boolean enabled;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final long linger;
+    private final long timeout;
+    private final ScanLane lane;
+    private final BlockingQueue<Pending> queue;
+    private final Meter overflow;
+    private final List<Thread> dispatchers = new ArrayList<>();
+
+    private final Histogram batchSize;
+    private final Meter batchedFiles;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public ScanBatcher(ScanLanes scanLanes,
+                       MetricRegistry metricRegistry,
+                       @Value("${clamd.batch.enabled}") boolean enabled,
+                       @Value("${clamd.batch.maxfilesize}") long maxFileSize,
+                       @Value("${clamd.batch.maxfiles}") int maxFiles,
+                       @Value("${clamd.batch.maxbytes}") long maxBytes,
+                       @Value("${clamd.batch.linger}") long linger,
+                       @Value("${clamd.batch.timeout}") long timeout,
+                       @Value("${clamd.batch.dispatchers}") int dispatcherCount,
+                       @Value("${clamd.batch.queue}") int queueSize) {
+        this.enabled = enabled;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.linger = linger;
+        this.timeout = timeout;
+        this.lane = scanLanes.getSmall();
+        this.queue = new LinkedBlockingQueue<>(queueSize);
+        this.overflow = metricRegistry.meter("avaas.scan.batch.overflow");
+        this.batchSize = metricRegistry.histogram("avaas.scan.batch.size");
+        this.batchedFiles = metricRegistry.meter("avaas.scan.batch.files");
+        if (enabled) {
+            for (int i = 0; i < dispatcherCount; i++) {
+                final Thread dispatcher = new Thread(this::dispatch, "avaas-batch-" + i);
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+                dispatchers.add(dispatcher);
+            }
+            logger.info("Small file batching enabled : files <= {} bytes, up to {} files per session, linger {}ms, {} sessions at once",
+                        maxFileSize, maxFiles, linger, dispatcherCount);
+        }
+    }
+
+    /**
+     * @param size file size in bytes
+     * @return true if a file of this size must go through the batched fast path, false as well when the queue is full
+     */
+    public boolean accepts(long size) {
+        if (!enabled || size > maxFileSize) return false;
+        if (queue.remainingCapacity() == 0) {
+            overflow.mark();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queue the content for the next session and wait for its reply.
+     *
+     * @param content data to scan
+     * @param deadline request deadline, bounds the wait for the reply
+     * @return server reply
+     * @throws ClamAVBusyException if the queue is full or batching is stopped
+     */
+    public byte[] scan(byte[] content, Deadline deadline) throws IOException {
+        deadline.check("queuing a batched scan");
+        // the caller's hash, for the flight recorder event of the session
+        final Pending pending = new Pending(content, MDC.get("sha256"), deadline);
+        if (!queue.offer(pending)) {
+            overflow.mark();
+            throw new ClamAVBusyException("Batched scan queue full");
+        }
+        if (!running && queue.remove(pending)) {
+            throw new ClamAVBusyException("Batched scans stopped");
+        }
+        final long wait = Math.min(timeout, deadline.remaining());
+        try {
+            return pending.reply.get(wait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pending.reply.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for batched scan", e);
+        } catch (TimeoutException e) {
+            pending.reply.cancel(false);
+            if (wait < timeout) {
+                throw new ClamAVDeadlineExceededException("Deadline exceeded while waiting for a batched scan reply", e);
+            }
+            throw new IOException("No reply for batched scan after " + timeout + "ms", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void dispatch() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            final List<Pending> batch = nextBatch();
+            if (!running) {
+                for (Pending pending : batch) {
+                    pending.reply.completeExceptionally(new ClamAVBusyException("Batched scans stopped"));
+                }
+            } else if (!batch.isEmpty()) {
+                flush(batch);
+            }
+        }
+    }
+
+    // an interrupt ends the batch early, the files already taken from the queue are still returned
+    private List<Pending> nextBatch() {
+        final List<Pending> batch = new ArrayList<>(maxFiles);
+        try {
+            Pending first;
+            do {
+                first = queue.take();
+            } while (first.isDropped());
+            batch.add(first);
+            long bytes = first.content.length;
+            final long flushAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(linger);
+            while (batch.size() < maxFiles && bytes < maxBytes) {
+                final long remaining = flushAt - System.nanoTime();
+                if (remaining <= 0) break;
+                final Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) break;
+                if (next.isDropped()) continue;
+                batch.add(next);
+                bytes += next.content.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return batch;
+    }
+
+    private void flush(final List<Pending> pendings) {
+        // files may have expired while the batch was lingering
+        final List<Pending> batch = new ArrayList<>(pendings.size());
+        Deadline latest = null;
+        for (Pending pending : pendings) {
+            if (pending.isDropped()) continue;
+            batch.add(pending);
+            latest = latest == null ? pending.deadline : latest.latest(pending.deadline);
+        }
+        if (batch.isEmpty()) return;
+        final Deadline deadline = latest;
+        final List<byte[]> contents = new ArrayList<>(batch.size());
+        final List<String> sha256s = new ArrayList<>(batch.size());
+        long bytes = 0;
+        for (Pending pending : batch) {
+            contents.add(pending.content);
+            sha256s.add(pending.sha256);
+            bytes += pending.content.length;
+        }
+        batchSize.update(batch.size());
+        batchedFiles.mark(batch.size());
+        try {
+            final List<ClamAVClient.SessionReply> replies =
+                    lane.execute(FLOW, 1, bytes, deadline, client -> client.scanSession(contents, sha256s, deadline));
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    batch.get(i).reply.complete(replies.get(i).get());
+                } catch (IOException | RuntimeException e) {
+                    batch.get(i).reply.completeExceptionally(e);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Batched scan of {} files failed", batch.size(), e);
+            for (Pending pending : batch) {
+                pending.reply.completeExceptionally(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.interrupt();
+        }
+        // callers of queued scans would otherwise wait for their timeout
+        final List<Pending> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        for (Pending pending : abandoned) {
+            pending.reply.completeExceptionally(new ClamAVBusyException("Batched scans stopped"));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent scans of the same content : the first caller for a given key runs the scan,
+ * concurrent callers with the same key wait for it and get the same clamd reply.
+ * <p>
+ * Nothing is cached, a key is forgotten as soon as its scan is over.
+ */
+@Component
+public class ScanCoalescer {
+
+    /**
+     * The scan to run if no scan of the same content is in flight.
+     */
+    @FunctionalInterface
+    public interface Scan {
+        byte[] run() throws IOException;
+    }
+
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final Meter coalesced;
+
+    @Autowired
+    public ScanCoalescer(MetricRegistry metricRegistry) {
+        this.coalesced = metricRegistry.meter("avaas.scan.coalesced");
+        metricRegistry.register("avaas.scan.coalesce.inflight", (Gauge<Integer>) inFlight::size);
+    }
+
+    /**
+     * A caller waiting for a concurrent scan which fails on its own deadline runs the scan again if it has time left.
+     *
+     * @param key content key, typically its SHA-256. Scans with an empty key are never coalesced.
+     * @param deadline request deadline, bounds the wait for a concurrent scan
+     * @param scan the scan to run if none is in flight for this key
+     * @return server reply
+     */
+    public byte[] scan(final String key, final Deadline deadline, final Scan scan) throws IOException {
+        if (Strings.isNullOrEmpty(key)) {
+            return scan.run();
+        }
+        while (true) {
+            final CompletableFuture<byte[]> mine = new CompletableFuture<>();
+            final CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+            if (running == null) {
+                return lead(key, mine, scan);
+            }
+            coalesced.mark();
+            try {
+                return await(running, deadline);
+            } catch (ClamAVDeadlineExceededException e) {
+                if (!running.isDone() || deadline.isExpired()) throw e;
+                // the leader ran out of time, not this caller
+            }
+        }
+    }
+
+    private byte[] lead(final String key, final CompletableFuture<byte[]> mine, final Scan scan) throws IOException {
+        // the key is released before completing, so that followers retrying after a failure do not find it again
+        final byte[] reply;
+        try {
+            reply = scan.run();
+        } catch (Throwable t) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(t);
+            throw t;
+        }
+        inFlight.remove(key, mine);
+        mine.complete(reply);
+        return reply;
+    }
+
+    private static byte[] await(final CompletableFuture<byte[]> running, final Deadline deadline) throws IOException {
+        try {
+            if (!deadline.isSet()) {
+                return running.get();
+            }
+            return running.get(deadline.remaining(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ClamAVDeadlineExceededException("Deadline exceeded while waiting for a concurrent scan", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a concurrent scan of the same content", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import avaas.tenant.WeightedFairQueue;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded set of clamd slots with its own concurrency limit and timeouts.
+ * <p>
+ * Scans are dispatched to a lane according to their size so that large files can not
+ * occupy every clamd slot and delay small ones.
+ * <p>
+ * Slots are granted by {@link WeightedFairQueue weighted fair queuing} between flows, i.e. tenants : a tenant
+ * flooding a lane can not starve the others. Scans without a flow, such as clamd protocol frontend streams,
+ * share the {@value #SHARED_FLOW} flow.
+ * <p>
+ * Besides the lane metrics, the queue metrics of each flow are summed over the lanes under {@code avaas.tenant.<flow>} :
+ * {@code queued}, {@code wait} and {@code rejected.busy}.
+ */
+public class ScanLane {
+
+    /**
+     * A unit of work executed against clamd while holding a lane slot.
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T call(ClamAVClient client) throws IOException;
+    }
+
+    /**
+     * Flow of the scans executed without one.
+     */
+    public static final String SHARED_FLOW = "shared";
+
+    // fixed cost of a scan, whatever its size, in bytes
+    private static final long REQUEST_COST = 64 * 1024;
+
+    // shared by the lanes through the metric registry
+    private static final class FlowMetrics {
+        private final Counter queued;
+        private final Timer waiting;
+        private final Meter rejected;
+
+        private FlowMetrics(String flow, MetricRegistry metricRegistry) {
+            final String prefix = MetricRegistry.name("avaas.tenant", flow);
+            this.queued = metricRegistry.counter(MetricRegistry.name(prefix, "queued"));
+            this.waiting = metricRegistry.timer(MetricRegistry.name(prefix, "wait"));
+            this.rejected = metricRegistry.meter(MetricRegistry.name(prefix, "rejected", "busy"));
+        }
+    }
+
+    private final String name;
+    private final int concurrency;
+    private final int timeout;
+    private final long maxWait;
+    private final WeightedFairQueue slots;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ClamAVClientFactory clientFactory;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, FlowMetrics> flows = new ConcurrentHashMap<>();
+
+    private final Timer latency;
+    private final Timer waiting;
+    private final Meter rejected;
+
+    /**
+     * @param name lane name, used in metric names
+     * @param concurrency maximum number of concurrent clamd connections for this lane
+     * @param timeout clamd socket timeout in milliseconds for this lane
+     * @param maxWait maximum time in milliseconds to wait for a free slot
+     */
+    public ScanLane(String name, int concurrency, int timeout, long maxWait,
+                    ClamAVClientFactory clientFactory, MetricRegistry metricRegistry) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Lane " + name + " must allow at least one concurrent scan.");
+        }
+        this.name = name;
+        this.concurrency = concurrency;
+        this.timeout = timeout;
+        this.maxWait = maxWait;
+        this.slots = new WeightedFairQueue(concurrency);
+        this.clientFactory = clientFactory;
+        this.metricRegistry = metricRegistry;
+
+        final String prefix = MetricRegistry.name("avaas.scan.lane", name);
+        this.latency = metricRegistry.timer(MetricRegistry.name(prefix, "latency"));
+        this.waiting = metricRegistry.timer(MetricRegistry.name(prefix, "wait"));
+        this.rejected = metricRegistry.meter(MetricRegistry.name(prefix, "rejected"));
+        metricRegistry.register(MetricRegistry.name(prefix, "inflight"), (Gauge<Integer>) this::getInFlight);
+        metricRegistry.register(MetricRegistry.name(prefix, "queued"), (Gauge<Integer>) slots::getQueueLength);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return number of slots currently in use
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Wait for a free slot, then run the task with a client configured with this lane timeout.
+     *
+     * @throws ClamAVBusyException if no slot is available within the lane wait budget
+     */
+    public <T> T execute(final Task<T> task) throws IOException {
+        return execute(Deadline.none(), task);
+    }
+
+    /**
+     * Same as {@link #execute(Task)}, waiting for a slot no longer than the deadline allows.
+     *
+     * @throws ClamAVBusyException if no slot is available within the lane wait budget
+     * @throws ClamAVDeadlineExceededException if the deadline expires before a slot is available
+     */
+    public <T> T execute(final Deadline deadline, final Task<T> task) throws IOException {
+        return execute(SHARED_FLOW, 1, 0L, deadline, task);
+    }
+
+    /**
+     * Same as {@link #execute(Deadline, Task)}, the slot being granted in weighted fair order between flows.
+     *
+     * @param flow flow of the scan, i.e. its tenant
+     * @param weight flow weight
+     * @param bytes size of the content to scan, a scan costs its size plus a fixed overhead
+     * @throws ClamAVBusyException if no slot is available within the lane wait budget
+     * @throws ClamAVDeadlineExceededException if the deadline expires before a slot is available
+     */
+    public <T> T execute(final String flow, final int weight, final long bytes, final Deadline deadline,
+                         final Task<T> task) throws IOException {
+        deadline.check("waiting for a clamd slot");
+        final FlowMetrics flowMetrics = flows.computeIfAbsent(flow, f -> new FlowMetrics(f, metricRegistry));
+        final long start = System.nanoTime();
+        final boolean acquired;
+        flowMetrics.queued.inc();
+        try {
+            acquired = slots.acquire(flow, weight, REQUEST_COST + bytes, Math.min(maxWait, deadline.remaining()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a clamd slot in lane " + name, e);
+        } finally {
+            flowMetrics.queued.dec();
+            final long elapsed = System.nanoTime() - start;
+            waiting.update(elapsed, TimeUnit.NANOSECONDS);
+            flowMetrics.waiting.update(elapsed, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            rejected.mark();
+            flowMetrics.rejected.mark();
+            deadline.check("getting a clamd slot in lane " + name);
+            throw new ClamAVBusyException("No clamd slot available in lane " + name + " after " + maxWait + "ms");
+        }
+        inFlight.incrementAndGet();
+        final Timer.Context latencyContext = latency.time();
+        try {
+            deadline.check("scanning in lane " + name);
+            return task.call(clientFactory.create(timeout));
+        } finally {
+            latencyContext.stop();
+            inFlight.decrementAndGet();
+            slots.release();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Size-aware dispatch of scans : files up to {@code clamd.lane.threshold} bytes go to the
+ * "small" lane, bigger ones to the "large" lane. Each lane has its own clamd slots and timeouts.
+ */
+@Component
+public class ScanLanes {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanLanes.class);
+
+    private final long threshold;
+    private final ScanLane small;
+    private final ScanLane large;
+
+    @Autowired
+    public ScanLanes(ClamAVClientFactory clientFactory,
+                     MetricRegistry metricRegistry,
+                     @Value("${clamd.lane.threshold}") long threshold,
+                     @Value("${clamd.lane.small.concurrency}") int smallConcurrency,
+                     @Value("${clamd.lane.small.timeout}") int smallTimeout,
+                     @Value("${clamd.lane.small.wait}") long smallWait,
+                     @Value("${clamd.lane.large.concurrency}") int largeConcurrency,
+                     @Value("${clamd.lane.large.timeout}") int largeTimeout,
+                     @Value("${clamd.lane.large.wait}") long largeWait) {
+        this.threshold = threshold;
+        this.small = new ScanLane("small", smallConcurrency, smallTimeout, smallWait, clientFactory, metricRegistry);
+        this.large = new ScanLane("large", largeConcurrency, largeTimeout, largeWait, clientFactory, metricRegistry);
+        logger.info("Scan lanes : small <= {} bytes ({} slots), large ({} slots)",
+                    threshold, smallConcurrency, largeConcurrency);
+    }
+
+    /**
+     * @param size file size in bytes
+     * @return the lane which must handle a file of the given size
+     */
+    public ScanLane select(long size) {
+        return size <= threshold ? small : large;
+    }
+
+    /**
+     * @return biggest size in bytes of the files handled by the small lane
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public ScanLane getSmall() {
+        return small;
+    }
+
+    public ScanLane getLarge() {
+        return large;
+    }
+}
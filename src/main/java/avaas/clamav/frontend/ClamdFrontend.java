@@ -0,0 +1,137 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.frontend;
+
+import avaas.clamav.client.ClamAVClientFactory;
+import avaas.clamav.client.ScanLanes;
+import avaas.clamav.health.ClamdStatusProber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional TCP listener speaking the clamd protocol (PING, VERSION, INSTREAM, IDSESSION), so that services
+ * which already use a clamd client can go through avaas without HTTP, multipart and JSON overhead.
+ * <p>
+ * Streams are checked against the magic whitelist then relayed to clamd through their size lane, see {@link ClamdFrontendConnection}.
+ * Enabled when {@code frontend.port} is greater than zero, at most {@code frontend.threads} connections
+ * are served at once, others are closed right away. Streams are limited to {@code frontend.maxsize} bytes.
+ */
+@Component
+public class ClamdFrontend {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClamdFrontend.class);
+
+    private final int port;
+    private final int threads;
+    private final int timeout;
+    private final long maxSize;
+    private final ClamAVClientFactory clientFactory;
+    private final ScanLanes scanLanes;
+    private final ClamdStatusProber clamdStatusProber;
+    private final CounterService counterService;
+
+    private ServerSocketChannel server;
+    private ThreadPoolExecutor workers;
+    private volatile boolean running = false;
+
+    @Autowired
+    public ClamdFrontend(ClamAVClientFactory clientFactory,
+                         ScanLanes scanLanes,
+                         ClamdStatusProber clamdStatusProber,
+                         CounterService counterService,
+                         @Value("${frontend.port}") int port,
+                         @Value("${frontend.threads}") int threads,
+                         @Value("${frontend.timeout}") int timeout,
+                         @Value("${frontend.maxsize}") long maxSize) {
+        this.clientFactory = clientFactory;
+        this.scanLanes = scanLanes;
+        this.clamdStatusProber = clamdStatusProber;
+        this.counterService = counterService;
+        this.port = port;
+        this.threads = threads;
+        this.timeout = timeout;
+        this.maxSize = maxSize;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (port <= 0) {
+            logger.info("clamd protocol frontend disabled");
+            return;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            final Thread thread = new Thread(r, "avaas-frontend-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        running = true;
+        final Thread acceptor = new Thread(this::accept, "avaas-frontend-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("clamd protocol frontend listening on port {}", port);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        if (server != null) {
+            server.close();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                final SocketChannel client = server.accept();
+                try {
+                    workers.execute(new ClamdFrontendConnection(client, timeout, clientFactory, scanLanes, maxSize,
+                                                                clamdStatusProber, counterService));
+                } catch (RejectedExecutionException e) {
+                    logger.warn("clamd protocol frontend saturated, closing connection from {}", client.getRemoteAddress());
+                    client.close();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("clamd protocol frontend failed to accept a connection", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.frontend;
+
+import avaas.clamav.client.ClamAVBusyException;
+import avaas.clamav.client.ClamAVClient;
+import avaas.clamav.client.ClamAVClientFactory;
+import avaas.clamav.client.ScanLane;
+import avaas.clamav.client.ScanLanes;
+import avaas.clamav.health.ClamdStatusProber;
+import avaas.magic.Magic;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the clamd protocol on a single client connection.
+ * <p>
+ * Commands can be prefixed with 'z' (NULL terminated) or 'n' (newline terminated), replies use the same terminator.
+ * The beginning of an INSTREAM, up to {@value #MAGIC_PREFIX} bytes over as many chunks as needed, is checked against
+ * the magic whitelist. Streams which are not whitelisted are discarded and reported as infected by
+ * {@value #BLACKLISTED_SIGNATURE}.
+ * <p>
+ * Other streams are received in full, in memory up to the lane threshold and in a temporary file beyond, then relayed
+ * through the {@link ScanLane} matching their size : slow clients do not hold a clamd slot. Streams bigger than the
+ * maximum size are discarded and rejected like clamd does, clamd failures are replied as errors.
+ */
+class ClamdFrontendConnection implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClamdFrontendConnection.class);
+
+    static final String BLACKLISTED_SIGNATURE = "Avaas.Magic.Blacklisted";
+
+    private static final String UNKNOWN_COMMAND = "UNKNOWN COMMAND";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAGIC_PREFIX = 8 * 1024;
+    private static final int MAX_MEMORY = 16 * 1024 * 1024;
+    private static final int MAX_COMMAND_LENGTH = 64;
+
+    private static final Magic magic = Magic.getInstance();
+
+    private static class Command {
+        private final String name;
+        private final byte delimiter;
+
+        private Command(String name, byte delimiter) {
+            this.name = name;
+            this.delimiter = delimiter;
+        }
+    }
+
+    private final SocketChannel client;
+    private final int timeout;
+    private final ClamAVClientFactory clientFactory;
+    private final ScanLanes scanLanes;
+    private final long maxSize;
+    private final int memoryLimit;
+    private final ClamdStatusProber clamdStatusProber;
+    private final CounterService counterService;
+
+    // client data, always in read mode
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private Selector selector;
+    private SelectionKey key;
+
+    ClamdFrontendConnection(SocketChannel client, int timeout,
+                            ClamAVClientFactory clientFactory,
+                            ScanLanes scanLanes,
+                            long maxSize,
+                            ClamdStatusProber clamdStatusProber,
+                            CounterService counterService) {
+        this.client = client;
+        this.timeout = timeout;
+        this.clientFactory = clientFactory;
+        this.scanLanes = scanLanes;
+        this.maxSize = maxSize;
+        // streams of the small lane are kept in memory
+        this.memoryLimit = (int) Math.min(Math.max(scanLanes.getThreshold(), MAGIC_PREFIX), MAX_MEMORY);
+        this.clamdStatusProber = clamdStatusProber;
+        this.counterService = counterService;
+        this.in.flip();
+    }
+
+    @Override
+    public void run() {
+        try (SocketChannel c = client; Selector s = Selector.open()) {
+            selector = s;
+            client.configureBlocking(false);
+            key = client.register(selector, SelectionKey.OP_READ);
+            final Command command = readCommand();
+            if (command == null) return;
+            if ("IDSESSION".equals(command.name)) {
+                session(command.delimiter);
+            } else {
+                reply(execute(command), command.delimiter);
+            }
+        } catch (IOException e) {
+            logger.debug("clamd protocol connection closed", e);
+        }
+    }
+
+    private void session(final byte delimiter) throws IOException {
+        int id = 0;
+        Command command;
+        while ((command = readCommand()) != null && !"END".equals(command.name)) {
+            id = id + 1;
+            final String reply = execute(command);
+            reply(id + ": " + reply, delimiter);
+            if (UNKNOWN_COMMAND.equals(reply)) return;
+        }
+    }
+
+    private String execute(final Command command) throws IOException {
+        switch (command.name) {
+            case "PING":
+                return "PONG";
+            case "VERSION":
+                return version();
+            case "INSTREAM":
+                return instream();
+            default:
+                logger.info("unsupported clamd command {}", command.name);
+                return UNKNOWN_COMMAND;
+        }
+    }
+
+    private String version() throws IOException {
+        final String version = clamdStatusProber.getStatus().getVersion();
+        return Strings.isNullOrEmpty(version) ? clientFactory.create().version() : version;
+    }
+
+    private String instream() throws IOException {
+        counterService.increment("avaas.scan.call");
+        try (StreamSpool spool = new StreamSpool(memoryLimit)) {
+            // length is what is left of the current chunk, zero once the stream is over
+            int length = spool(readChunkLength(), MAGIC_PREFIX, spool);
+            final byte[] head = spool.head(MAGIC_PREFIX);
+            if (head.length > 0 && !magic.whiteListed(head)) {
+                skipStream(length);
+                logger.info("scan blacklist");
+                counterService.increment("avaas.scan.blacklisted");
+                return "stream: " + BLACKLISTED_SIGNATURE + " FOUND";
+            }
+            length = spool(length, maxSize, spool);
+            if (length > 0) {
+                skipStream(length);
+                logger.warn("clamd protocol stream bigger than {} bytes", maxSize);
+                return "INSTREAM size limit exceeded. ERROR";
+            }
+
+            final ScanLane lane = scanLanes.select(spool.size());
+            final String reply;
+            try {
+                reply = lane.execute(clamd -> {
+                    try (ClamAVClient.Connection backend = clamd.open()) {
+                        backend.writeCommand("zINSTREAM\0");
+                        spool.relay(backend);
+                        backend.writeChunkLength(0);
+                        return new String(backend.readReply(), StandardCharsets.US_ASCII);
+                    }
+                });
+            } catch (ClamAVBusyException e) {
+                logger.warn("no clamd slot for a relayed scan", e);
+                return e.getMessage() + " ERROR";
+            } catch (IOException e) {
+                logger.warn("relayed scan failed", e);
+                return e.getMessage() + " ERROR";
+            }
+            if (reply.contains("FOUND")) {
+                logger.warn("positive scan");
+                counterService.increment("avaas.scan.infected");
+            } else {
+                logger.info("negative scan");
+            }
+            return reply;
+        }
+    }
+
+    // stores the client stream, starting with length bytes, until it ends or limit bytes are stored.
+    // returns what is left of the current chunk, zero once the stream is over
+    private int spool(int length, final long limit, final StreamSpool spool) throws IOException {
+        while (length > 0 && spool.size() < limit) {
+            final int n = (int) Math.min(length, limit - spool.size());
+            transfer(n, spool);
+            length = length - n;
+            if (length == 0) {
+                length = readChunkLength();
+            }
+        }
+        return length;
+    }
+
+    // hands the next length bytes of the client stream to the spool
+    private void transfer(int length, final StreamSpool spool) throws IOException {
+        while (length > 0) {
+            if (!in.hasRemaining()) fill();
+            final int n = Math.min(length, in.remaining());
+            final ByteBuffer slice = in.duplicate();
+            slice.limit(slice.position() + n);
+            spool.write(slice);
+            in.position(in.position() + n);
+            length = length - n;
+        }
+    }
+
+    private void skip(int length) throws IOException {
+        while (length > 0) {
+            if (!in.hasRemaining()) fill();
+            final int n = Math.min(length, in.remaining());
+            in.position(in.position() + n);
+            length = length - n;
+        }
+    }
+
+    // discards the rest of the client stream, starting with length bytes
+    private void skipStream(int length) throws IOException {
+        while (length > 0) {
+            skip(length);
+            length = readChunkLength();
+        }
+    }
+
+    private int readChunkLength() throws IOException {
+        while (in.remaining() < 4) fill();
+        final int length = in.getInt();
+        if (length < 0) throw new IOException("Unsupported INSTREAM chunk length " + (length & 0xFFFFFFFFL));
+        return length;
+    }
+
+    // reads a command, null if the client closed the connection
+    private Command readCommand() throws IOException {
+        if (!in.hasRemaining() && !read()) return null;
+        final byte first = in.get();
+        final byte delimiter = first == 'z' ? 0 : (byte) '\n';
+        final StringBuilder name = new StringBuilder();
+        if (first != 'z' && first != 'n') name.append((char) first);
+        while (true) {
+            if (!in.hasRemaining()) fill();
+            final byte b = in.get();
+            if (b == delimiter) break;
+            if (name.length() >= MAX_COMMAND_LENGTH) throw new IOException("clamd command too long");
+            name.append((char) b);
+        }
+        return new Command(name.toString().trim(), delimiter);
+    }
+
+    private void fill() throws IOException {
+        if (!read()) throw new EOFException("Connection closed by client");
+    }
+
+    // reads more client data, waiting at most timeout milliseconds. false on end of stream
+    private boolean read() throws IOException {
+        in.compact();
+        try {
+            int n;
+            while ((n = client.read(in)) == 0) {
+                if (selector.select(timeout) == 0) {
+                    throw new SocketTimeoutException("No data from client for " + timeout + "ms");
+                }
+                selector.selectedKeys().clear();
+            }
+            return n > 0;
+        } finally {
+            in.flip();
+        }
+    }
+
+    private void reply(final String reply, final byte delimiter) throws IOException {
+        final byte[] bytes = reply.getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer out = ByteBuffer.allocate(bytes.length + 1);
+        out.put(bytes).put(delimiter).flip();
+        key.interestOps(SelectionKey.OP_WRITE);
+        try {
+            while (out.hasRemaining()) {
+                if (client.write(out) == 0) {
+                    if (selector.select(timeout) == 0) {
+                        throw new SocketTimeoutException("Client not reading for " + timeout + "ms");
+                    }
+                    selector.selectedKeys().clear();
+                }
+            }
+        } finally {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+}
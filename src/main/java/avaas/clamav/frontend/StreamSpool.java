@@ -0,0 +1,118 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+
+package avaas.clamav.frontend;
+
+import avaas.clamav.client.ClamAVClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Content of an INSTREAM, received in full before it is relayed to clamd : the beginning is kept in memory, up to
+ * the given number of bytes, the rest goes to a temporary file deleted on close.
+ */
+class StreamSpool implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final int memoryLimit;
+    // grows up to the memory limit
+    private byte[] memory = new byte[CHUNK_SIZE];
+    private int buffered;
+    private FileChannel file;
+    private long size;
+
+    /**
+     * @param memoryLimit number of bytes kept in memory
+     */
+    StreamSpool(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer.
+     */
+    void write(ByteBuffer data) throws IOException {
+        size = size + data.remaining();
+        final int n = Math.min(data.remaining(), memoryLimit - buffered);
+        if (buffered + n > memory.length) {
+            memory = Arrays.copyOf(memory, Math.min(memoryLimit, Math.max(buffered + n, 2 * memory.length)));
+        }
+        data.get(memory, buffered, n);
+        buffered = buffered + n;
+        if (!data.hasRemaining()) return;
+        if (file == null) {
+            file = FileChannel.open(Files.createTempFile("avaas-instream-", ".tmp"), StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        while (data.hasRemaining()) {
+            file.write(data);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return at most the first length bytes, no more than the memory limit
+     */
+    byte[] head(int length) {
+        final byte[] head = new byte[Math.min(length, buffered)];
+        System.arraycopy(memory, 0, head, 0, head.length);
+        return head;
+    }
+
+    /**
+     * Sends the content as INSTREAM chunks, without the terminating zero length chunk.
+     */
+    void relay(ClamAVClient.Connection backend) throws IOException {
+        for (int offset = 0; offset < buffered; offset += CHUNK_SIZE) {
+            final int n = Math.min(CHUNK_SIZE, buffered - offset);
+            backend.writeChunkLength(n);
+            backend.write(ByteBuffer.wrap(memory, offset, n));
+        }
+        if (file == null) return;
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        long position = 0;
+        while (position < file.size()) {
+            chunk.clear();
+            int n;
+            do {
+                n = file.read(chunk, position + chunk.position());
+            } while (n > 0 && chunk.hasRemaining());
+            chunk.flip();
+            position = position + chunk.remaining();
+            backend.writeChunkLength(chunk.remaining());
+            backend.write(chunk);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.health;
+
+import avaas.clamav.client.ScanLane;
+import avaas.clamav.client.ScanLanes;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * clamd health, read from the status cached by {@link ClamdStatusProber} along with the scan lanes occupancy.
+ */
+@Component
+public class ClamdHealthIndicator extends AbstractHealthIndicator {
+
+    private final ClamdStatusProber prober;
+    private final ScanLanes scanLanes;
+
+    @Autowired
+    public ClamdHealthIndicator(ClamdStatusProber prober, ScanLanes scanLanes) {
+        this.prober = prober;
+        this.scanLanes = scanLanes;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        final ClamdStatusProber.ClamdStatus status = prober.getStatus();
+        if (status.isResponding()) {
+            builder.up();
+        } else {
+            builder.down().withDetail("error", status.getError());
+        }
+        builder.withDetail("latency", status.getLatency())
+               .withDetail("version", status.getVersion())
+               .withDetail("signatures", status.getSignatureVersion())
+               .withDetail("checkedAt", status.getCheckedAt())
+               .withDetail("lanes", ImmutableMap.of(
+                       "small", laneDetails(scanLanes.getSmall()),
+                       "large", laneDetails(scanLanes.getLarge())));
+    }
+
+    private Map<String, Integer> laneDetails(final ScanLane lane) {
+        return ImmutableMap.of("inflight", lane.getInFlight(), "concurrency", lane.getConcurrency());
+    }
+}
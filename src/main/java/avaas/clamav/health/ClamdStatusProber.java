@@ -0,0 +1,148 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.health;
+
+import avaas.clamav.client.ClamAVClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes clamd in the background every {@code clamd.probe.interval} milliseconds and caches its status,
+ * so that health checks and the ping endpoint never open a connection to clamd themselves.
+ */
+@Component
+public class ClamdStatusProber {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClamdStatusProber.class);
+
+    /**
+     * Immutable snapshot of the last probe.
+     */
+    public static class ClamdStatus {
+
+        private final boolean responding;
+        private final long latency;
+        private final String version;
+        private final String error;
+        private final long checkedAt;
+
+        public ClamdStatus(boolean responding, long latency, String version, String error, long checkedAt) {
+            this.responding = responding;
+            this.latency = latency;
+            this.version = version;
+            this.error = error;
+            this.checkedAt = checkedAt;
+        }
+
+        public boolean isResponding() {
+            return responding;
+        }
+
+        /**
+         * @return duration of the last PING in milliseconds
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the raw VERSION reply
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the signature database version, i.e. the second field of the VERSION reply
+         */
+        public String getSignatureVersion() {
+            final String[] fields = version.split("/");
+            return fields.length > 1 ? fields[1] : "";
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return time of the probe in milliseconds since epoch, 0 if clamd has never been probed
+         */
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+    }
+
+    private final ClamAVClientFactory clientFactory;
+    private final long interval;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "avaas-clamd-prober");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ClamdStatus status = new ClamdStatus(false, 0L, "", "not probed yet", 0L);
+
+    @Autowired
+    public ClamdStatusProber(ClamAVClientFactory clientFactory,
+                             @Value("${clamd.probe.interval}") long interval) {
+        this.clientFactory = clientFactory;
+        this.interval = interval;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::probe, 0L, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the last known clamd status
+     */
+    public ClamdStatus getStatus() {
+        return status;
+    }
+
+    private void probe() {
+        final long start = System.currentTimeMillis();
+        try {
+            final boolean responding = clientFactory.create().ping();
+            final long latency = System.currentTimeMillis() - start;
+            final String version = responding ? clientFactory.create().version() : status.getVersion();
+            status = new ClamdStatus(responding, latency, version, responding ? "" : "unexpected PING reply", start);
+        } catch (Exception e) {
+            if (status.isResponding()) {
+                logger.warn("clamd is not responding anymore", e);
+            }
+            status = new ClamdStatus(false, System.currentTimeMillis() - start, status.getVersion(),
+                                     String.valueOf(e.getMessage()), start);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.health;
+
+import avaas.clamav.client.ClamAVClientFactory;
+import avaas.magic.Magic;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Warms the service up once Spring Boot is started : loads the magic whitelist and opens
+ * {@code clamd.warmup.connections} concurrent connections to clamd, retrying until all of them answer a PING.
+ * <p>
+ * The service is not reported ready (see {@link WarmupHealthIndicator}) before the warm-up is over.
+ * Phase timings are logged and exported as {@code avaas.startup.<phase>} gauges, in milliseconds.
+ */
+@Component
+public class StartupWarmup implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private final ClamAVClientFactory clientFactory;
+    private final MetricRegistry metricRegistry;
+    private final int connections;
+    private final long retryDelay;
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private volatile boolean ready = false;
+
+    @Autowired
+    public StartupWarmup(ClamAVClientFactory clientFactory,
+                         MetricRegistry metricRegistry,
+                         @Value("${clamd.warmup.connections}") int connections,
+                         @Value("${clamd.warmup.retry}") long retryDelay) {
+        this.clientFactory = clientFactory;
+        this.metricRegistry = metricRegistry;
+        this.connections = connections;
+        this.retryDelay = retryDelay;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        record("spring", ManagementFactory.getRuntimeMXBean().getUptime());
+        final Thread warmup = new Thread(this::warmUp, "avaas-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return startup phase durations in milliseconds, in the order they completed
+     */
+    public synchronized Map<String, Long> getPhases() {
+        return ImmutableMap.copyOf(phases);
+    }
+
+    private void warmUp() {
+        long start = System.currentTimeMillis();
+        // loads and parses the whitelist, matching is a plain byte comparison which needs no warm-up
+        Magic.getInstance();
+        record("magic", System.currentTimeMillis() - start);
+
+        if (connections > 0) {
+            start = System.currentTimeMillis();
+            final ExecutorService executor = Executors.newFixedThreadPool(connections);
+            try {
+                while (!pingAll(executor)) {
+                    logger.warn("clamd not ready yet, retrying in {}ms", retryDelay);
+                    Thread.sleep(retryDelay);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                executor.shutdownNow();
+            }
+            record("clamd", System.currentTimeMillis() - start);
+        }
+
+        record("ready", ManagementFactory.getRuntimeMXBean().getUptime());
+        ready = true;
+        logger.info("Warm-up done, startup phases (ms) : {}", getPhases());
+    }
+
+    private boolean pingAll(final ExecutorService executor) throws InterruptedException {
+        final List<Future<Boolean>> pings = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            pings.add(executor.submit(() -> clientFactory.create().ping()));
+        }
+        boolean responding = true;
+        for (Future<Boolean> ping : pings) {
+            try {
+                responding &= ping.get();
+            } catch (ExecutionException e) {
+                logger.debug("clamd ping failed during warm-up", e.getCause());
+                responding = false;
+            }
+        }
+        return responding;
+    }
+
+    private synchronized void record(final String phase, final long millis) {
+        phases.put(phase, millis);
+        metricRegistry.register(MetricRegistry.name("avaas.startup", phase), (Gauge<Long>) () -> millis);
+    }
+}
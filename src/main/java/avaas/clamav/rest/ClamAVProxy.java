@@ -17,13 +17,29 @@
 
 package avaas.clamav.rest;
 
-import avaas.clamav.client.ClamAVClient;
+import avaas.clamav.client.ClamAVDeadlineExceededException;
+import avaas.clamav.client.Deadline;
+import avaas.clamav.health.ClamdStatusProber;
+import avaas.jfr.JfrEvents;
+import avaas.jfr.ScanTrace;
 import avaas.magic.Magic;
+import avaas.metrics.CardinalityLimiter;
+import avaas.scanner.MultiEngineScanner;
+import avaas.scanner.ScanRequest;
+import avaas.scanner.ScanResult;
+import avaas.scanner.ScanVerdict;
+import avaas.tenant.Tenant;
+import avaas.tenant.TenantRegistry;
+import avaas.tenant.TenantScheduler;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Strings;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.catalina.startup.Tomcat;
 import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.coyote.http2.Http2Protocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -31,6 +47,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.boot.context.embedded.EmbeddedServletContainerFactory;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainer;
 import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.web.bind.annotation.*;
@@ -38,42 +55,68 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 public class ClamAVProxy {
 
     private static final Logger logger = LoggerFactory.getLogger(ClamAVProxy.class);
 
-    private static final Pattern clamdResponsePattern = Pattern.compile("^.* (.*) FOUND.*$");
-
     private static final Magic magic = Magic.getInstance();
 
+    /**
+     * Request header holding the time budget of a scan, in milliseconds from the reception of the request : the upload
+     * counts.
+     */
+    public static final String DEADLINE_HEADER = "X-Avaas-Deadline";
+
+    /**
+     * Request header holding the API key of a declared tenant.
+     */
+    public static final String API_KEY_HEADER = "X-Avaas-Api-Key";
+
+    /**
+     * Request header naming the tenant of a request without API key.
+     */
+    public static final String TENANT_HEADER = "X-Avaas-Tenant";
+
     private final CounterService globalCounterService;
     private final CounterService blacklistedCounterService;
     private final CounterService infectedCounterService;
+    private final MultiEngineScanner scanner;
+    private final TenantRegistry tenantRegistry;
+    private final TenantScheduler tenantScheduler;
+    private final ClamdStatusProber clamdStatusProber;
+    private final MetricRegistry metricRegistry;
+    private final CardinalityLimiter signatureNames;
 
     @Autowired
     public ClamAVProxy(CounterService globalCounterService,
                        CounterService blacklistedCounterService,
-                       CounterService infectedCounterService) {
+                       CounterService infectedCounterService,
+                       MultiEngineScanner scanner,
+                       TenantRegistry tenantRegistry,
+                       TenantScheduler tenantScheduler,
+                       ClamdStatusProber clamdStatusProber,
+                       MetricRegistry metricRegistry,
+                       @Value("${metrics.maxsignatures}") int maxSignatures) {
         this.globalCounterService = globalCounterService;
         this.blacklistedCounterService = blacklistedCounterService;
         this.infectedCounterService = infectedCounterService;
+        this.scanner = scanner;
+        this.tenantRegistry = tenantRegistry;
+        this.tenantScheduler = tenantScheduler;
+        this.clamdStatusProber = clamdStatusProber;
+        this.metricRegistry = metricRegistry;
+        this.signatureNames = new CardinalityLimiter(maxSignatures,
+                metricRegistry.counter("avaas.metrics.overflow.signature"));
     }
 
-    @Value("${clamd.host}")
-    private String hostname;
-
-    @Value("${clamd.port}")
-    private int port;
-
-    @Value("${clamd.timeout}")
-    private int timeout;
+    @Value("${clamd.deadline}")
+    private long defaultDeadline;
 
     @Value("${ssl.cert}")
     private String sslCert;
@@ -81,6 +124,24 @@ public class ClamAVProxy {
     @Value("${ssl.key}")
     private String sslKey;
 
+    @Value("${ssl.openssl}")
+    private boolean sslOpenssl;
+
+    @Value("${ssl.http2}")
+    private boolean sslHttp2;
+
+    @Value("${ssl.ciphers}")
+    private String sslCiphers;
+
+    @Value("${ssl.protocols}")
+    private String sslProtocols;
+
+    @Value("${ssl.sessioncachesize}")
+    private int sslSessionCacheSize;
+
+    @Value("${ssl.sessiontimeout}")
+    private int sslSessionTimeout;
+
     public static class ClamAVResponse {
 
         public enum InfectionState  { yes, no, ignore}
@@ -93,6 +154,7 @@ public class ClamAVProxy {
         private final String sha256;
         private final long filesize;
         private final boolean unsafe;
+        private final List<ScanResult> engines;
 
         public long getDuration() {
             return duration;
@@ -132,9 +194,24 @@ public class ClamAVProxy {
             return sha256;
         }
 
+        /**
+         * @return result and timing of each scan engine
+         */
+        public List<ScanResult> getEngines() {
+            return engines;
+        }
+
         public ClamAVResponse(boolean blacklist, boolean unsafe, InfectionState infected,
                               String rawReply, String signature,
                               String filename, String sha256, long filesize, long duration) {
+            this(blacklist, unsafe, infected, rawReply, signature, filename, sha256, filesize, duration,
+                 Collections.emptyList());
+        }
+
+        public ClamAVResponse(boolean blacklist, boolean unsafe, InfectionState infected,
+                              String rawReply, String signature,
+                              String filename, String sha256, long filesize, long duration,
+                              List<ScanResult> engines) {
             this.blacklist = blacklist;
             this.unsafe = unsafe;
             this.infected = infected;
@@ -144,86 +221,128 @@ public class ClamAVProxy {
             this.sha256 = sha256;
             this.filesize = filesize;
             this.duration = duration;
+            this.engines = engines;
         }
 
     }
 
     /**
-     * @return Clamd status.
+     * @return Clamd status, as last seen by the background prober.
      */
     @RequestMapping(value = "/api/v1", method = RequestMethod.GET)
-    public String ping() throws IOException {
-        ClamAVClient a = new ClamAVClient(hostname, port, timeout);
-        logger.info("Clamd response is {}", a.ping());
-        return "Clamd responding: " + a.ping() + "\n";
+    public String ping() {
+        return "Clamd responding: " + clamdStatusProber.getStatus().isResponding() + "\n";
     }
 
     /**
-     * @return Clamd scan result
+     * @return Merged result of the scan engines
      */
     @RequestMapping(value = "/api/v1/scan", method = RequestMethod.POST)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Success", response = ClamAVResponse.class),
             @ApiResponse(code = 401, message = "Unauthorized"),
-            @ApiResponse(code = 500, message = "Failure")})
+            @ApiResponse(code = 429, message = "Tenant quota exceeded"),
+            @ApiResponse(code = 500, message = "Failure"),
+            @ApiResponse(code = 503, message = "Clamd saturated"),
+            @ApiResponse(code = 504, message = "Deadline exceeded")})
     public @ResponseBody
     ClamAVResponse handleFileUpload(@RequestParam("name") String name,
-                                    @RequestParam("file") MultipartFile file)
+                                    @RequestParam("file") MultipartFile file,
+                                    @RequestHeader(value = DEADLINE_HEADER, required = false) Long deadlineHeader,
+                                    @RequestHeader(value = API_KEY_HEADER, required = false) String apiKey,
+                                    @RequestHeader(value = TENANT_HEADER, required = false) String tenantHeader,
+                                    @RequestAttribute(value = RequestStartFilter.START_ATTRIBUTE, required = false) Long start)
             throws IOException {
+        final Deadline deadline = deadline(deadlineHeader, start != null ? start : System.nanoTime());
         globalCounterService.increment("avaas.scan.call");
         MDC.clear();
+        final Tenant tenant = tenantRegistry.resolve(apiKey, tenantHeader);
+        MDC.put("tenant", tenant.getName());
         if (Strings.isNullOrEmpty(name)) throw new IllegalArgumentException("name parameter is empty or missing");
         if (!file.isEmpty()) {
-            MDC.put("filename", file.getOriginalFilename());
-            MDC.put("filesize", String.valueOf(file.getSize()));
-            MDC.put("action", "scan");
-            final String sha256 = sha256(file);
-            MDC.put("sha256", sha256);
-            long startTime = System.currentTimeMillis();
-
-            if (!magic.whiteListed(file.getBytes())) {
-                logger.info("scan blacklist");
-                blacklistedCounterService.increment("avaas.scan.blacklisted");
-                return new ClamAVResponse(true, true, ClamAVResponse.InfectionState.ignore, "", "",
-                        file.getOriginalFilename(), sha256, file.getSize(), 0L);
+            final ScanTrace event = JfrEvents.scan();
+            event.begin();
+            event.setSize(file.getSize());
+            event.setTenant(tenant.getName());
+            event.setVerdict(JfrEvents.ERROR);
+            try {
+                MDC.put("filename", file.getOriginalFilename());
+                MDC.put("filesize", String.valueOf(file.getSize()));
+                MDC.put("action", "scan");
+                long phase = System.nanoTime();
+                // buffered once, shared by all engines
+                final byte[] content = file.getBytes();
+                event.setReadTime(System.nanoTime() - phase);
+                phase = System.nanoTime();
+                final String sha256 = sha256(content);
+                event.setHashTime(System.nanoTime() - phase);
+                event.setSha256(sha256);
+                MDC.put("sha256", sha256);
+                long startTime = System.currentTimeMillis();
+
+                phase = System.nanoTime();
+                final boolean whiteListed = magic.whiteListed(content);
+                event.setMagicTime(System.nanoTime() - phase);
+                if (!whiteListed) {
+                    logger.info("scan blacklist");
+                    blacklistedCounterService.increment("avaas.scan.blacklisted");
+                    event.setVerdict(JfrEvents.BLACKLISTED);
+                    return new ClamAVResponse(true, true, ClamAVResponse.InfectionState.ignore, "", "",
+                            file.getOriginalFilename(), sha256, file.getSize(), 0L);
+                }
+
+                phase = System.nanoTime();
+                final ScanRequest request = new ScanRequest(file.getOriginalFilename(), content, sha256, deadline,
+                                                            tenantScheduler.isEnabled() ? tenant : null);
+                final ScanVerdict verdict = tenantScheduler.execute(tenant, content.length, () -> scanner.scan(request));
+                event.setScanTime(System.nanoTime() - phase);
+                event.setBackend(verdict.getResults().stream().map(ScanResult::getEngine).collect(Collectors.joining(",")));
+                long duration = (System.currentTimeMillis() - startTime);
+                MDC.put("duration", String.valueOf(duration));
+                final ClamAVResponse svcReponse;
+                if (!verdict.isInfected()) {
+                    logger.info("negative scan");
+                    event.setVerdict(JfrEvents.CLEAN);
+                    svcReponse = new ClamAVResponse(false, false, ClamAVResponse.InfectionState.no, verdict.getRawReply(), "",
+                                                    file.getOriginalFilename(), sha256, file.getSize(), duration,
+                                                    verdict.getResults());
+                } else {
+                    infectedCounterService.increment("avaas.scan.infected");
+                    final String signature = verdict.getSignature();
+                    MDC.put("signature", signature);
+                    metricRegistry.counter(MetricRegistry.name("avaas.scan.signature",
+                            signatureNames.limit(Strings.isNullOrEmpty(signature) ? "unknown" : signature))).inc();
+                    logger.warn("positive scan");
+                    event.setVerdict(JfrEvents.INFECTED);
+                    event.setSignature(signature);
+                    svcReponse = new ClamAVResponse(false, true, ClamAVResponse.InfectionState.yes, verdict.getRawReply(), signature,
+                                                    file.getOriginalFilename(), sha256, file.getSize(), duration,
+                                                    verdict.getResults());
+                }
+                MDC.clear();
+                return svcReponse;
+            } catch (ClamAVDeadlineExceededException e) {
+                event.setVerdict(JfrEvents.TIMEOUT);
+                throw e;
+            } finally {
+                event.commit();
             }
-
-            ClamAVClient a = new ClamAVClient(hostname, port, timeout);
-            byte[] replyAsBytes = this.scan(file, a);
-            String replyAsString = new String(replyAsBytes, StandardCharsets.US_ASCII);
-            long duration = (System.currentTimeMillis() - startTime);
-            MDC.put("duration", String.valueOf(duration));
-            final ClamAVResponse svcReponse;
-            if (replyAsString.contains("OK") && !replyAsString.contains("FOUND")) {
-                logger.info("negative scan");
-                svcReponse = new ClamAVResponse(false, false, ClamAVResponse.InfectionState.no, replyAsString, "",
-                                                file.getOriginalFilename(), sha256, file.getSize(), duration);
-            } else {
-                infectedCounterService.increment("avaas.scan.infected");
-                final String signature = getSignatureNameFromReply(replyAsString);
-                MDC.put("signature", signature);
-                logger.warn("positive scan");
-                svcReponse = new ClamAVResponse(false, true, ClamAVResponse.InfectionState.yes, replyAsString, signature,
-                                                file.getOriginalFilename(), sha256, file.getSize(), duration);
-            }
-            MDC.clear();
-            return svcReponse;
         } else throw new IllegalArgumentException("empty file");
     }
 
-    private String getSignatureNameFromReply(final String reply) {
-        final Matcher match = clamdResponsePattern.matcher(reply);
-        if (match.find()) {
-            return match.group(1);
-        } else {
-            return "";
+    // the client deadline if any, the server default otherwise, both from the reception of the request
+    private Deadline deadline(final Long deadlineHeader, final long start) {
+        if (deadlineHeader != null) {
+            if (deadlineHeader <= 0) throw new IllegalArgumentException(DEADLINE_HEADER + " must be positive");
+            return Deadline.after(deadlineHeader, start);
         }
+        return defaultDeadline > 0 ? Deadline.after(defaultDeadline, start) : Deadline.none();
     }
 
-    private String sha256(final MultipartFile file) {
+    private String sha256(final byte[] content) {
         try {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(file.getBytes());
+        byte[] hash = digest.digest(content);
         return bytesToHex(hash);
         } catch (Exception e) {
             logger.error("Ooops can't compute sha256", e);
@@ -242,21 +361,30 @@ public class ClamAVProxy {
         return new String(hexChars);
     }
 
-    private final byte[] scan(final MultipartFile file, final ClamAVClient a) throws IOException {
-        try (InputStream is = file.getInputStream()) {
-            return a.scan(is);
-        }
-    }
-
     /* HTTPS Configuration */
     @Bean
     public EmbeddedServletContainerFactory servletContainer() {
-        TomcatEmbeddedServletContainerFactory tomcat = new TomcatEmbeddedServletContainerFactory();
-        //tomcat.addAdditionalTomcatConnectors(createConnector());
         final File sslCertFile = new File(sslCert);
         final File sslKeyFile = new File(sslKey);
-        if (sslCertFile.canRead() && sslKeyFile.canRead()) {
-            tomcat.addAdditionalTomcatConnectors(createSslConnector(sslCertFile, sslKeyFile));
+        final boolean https = sslCertFile.canRead() && sslKeyFile.canRead();
+        // tcnative must be initialized by the APR listener of the server, before connectors are
+        final AprLifecycleListener aprLifecycleListener = https && sslOpenssl ? new AprLifecycleListener() : null;
+        final boolean openssl = aprLifecycleListener != null && AprLifecycleListener.isAprAvailable();
+        if (aprLifecycleListener != null && !openssl) {
+            logger.warn("OpenSSL requested but tcnative is not available, falling back to JSSE");
+        }
+        TomcatEmbeddedServletContainerFactory tomcat = new TomcatEmbeddedServletContainerFactory() {
+            @Override
+            protected TomcatEmbeddedServletContainer getTomcatEmbeddedServletContainer(Tomcat embedded) {
+                if (openssl) {
+                    embedded.getServer().addLifecycleListener(aprLifecycleListener);
+                }
+                return super.getTomcatEmbeddedServletContainer(embedded);
+            }
+        };
+        //tomcat.addAdditionalTomcatConnectors(createConnector());
+        if (https) {
+            tomcat.addAdditionalTomcatConnectors(createSslConnector(sslCertFile, sslKeyFile, openssl));
         } else {
             logger.info("https disabled : no cert and private in {} and {}",
                         sslCertFile.getAbsoluteFile(), sslKeyFile.getAbsoluteFile());
@@ -274,9 +402,12 @@ public class ClamAVProxy {
         return connector;
     }
 
-    private Connector createSslConnector(final File sslCertFile, final File sslKeyFile) {
-        logger.info("enabling https with cert {} and key {}",
-                     sslCertFile.getAbsoluteFile(), sslKeyFile.getAbsoluteFile());
+    /**
+     * @param openssl use OpenSSL (tcnative) for handshakes and bulk encryption instead of JSSE
+     */
+    private Connector createSslConnector(final File sslCertFile, final File sslKeyFile, final boolean openssl) {
+        logger.info("enabling https with cert {} and key {} using {}",
+                     sslCertFile.getAbsoluteFile(), sslKeyFile.getAbsoluteFile(), openssl ? "OpenSSL" : "JSSE");
         Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
         Http11NioProtocol protocol = (Http11NioProtocol) connector.getProtocolHandler();
         connector.setScheme("https");
@@ -286,6 +417,26 @@ public class ClamAVProxy {
         protocol.setSSLCertificateFile(sslCertFile.getAbsolutePath());
         protocol.setSSLCertificateKeyFile(sslKeyFile.getAbsolutePath());
         protocol.setSSLPassword("");
+        if (openssl) {
+            protocol.setSslImplementationName("org.apache.tomcat.util.net.openssl.OpenSSLImplementation");
+        }
+        if (!Strings.isNullOrEmpty(sslCiphers)) {
+            protocol.setCiphers(sslCiphers);
+            protocol.setUseServerCipherSuitesOrder("true");
+        }
+        if (!Strings.isNullOrEmpty(sslProtocols)) {
+            protocol.setSslEnabledProtocols(sslProtocols);
+        }
+        // session resumption : clients reconnecting within the timeout skip the full handshake
+        protocol.setSessionCacheSize(sslSessionCacheSize);
+        protocol.setSessionTimeout(sslSessionTimeout);
+        if (sslHttp2) {
+            // h2 is negotiated through ALPN, which JSSE only provides from Java 9
+            if (!openssl && System.getProperty("java.specification.version").startsWith("1.")) {
+                logger.warn("HTTP/2 requires OpenSSL on Java 8, clients will stay on HTTP/1.1");
+            }
+            connector.addUpgradeProtocol(new Http2Protocol());
+        }
 /*      protocol.setKeystoreFile(keystore.getAbsolutePath());
         protocol.setKeystorePass("changeit");
         protocol.setTruststoreFile(truststore.getAbsolutePath());
@@ -0,0 +1,127 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * {@link ClamdTrace} recorded by the flight recorder. Only loaded when {@link JfrEvents#isAvailable()}.
+ */
+@Name("avaas.Clamd")
+@Label("Clamd Scan")
+@Category("Avaas")
+@Description("A scan sent to clamd")
+@StackTrace(false)
+class ClamdEvent extends Event implements ClamdTrace {
+
+    @Label("Command")
+    private String command;
+
+    @Label("Backend")
+    @Description("clamd address or unix socket")
+    private String backend;
+
+    @Label("Size")
+    @DataAmount
+    private long size;
+
+    @Label("Files")
+    private int files;
+
+    @Label("SHA-256 Prefix")
+    @Description("Set when the scan runs on behalf of a REST request, comma separated for a session")
+    private String sha256;
+
+    @Label("Verdict")
+    private String verdict;
+
+    @Label("Connect Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long connectTime;
+
+    @Label("Write Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long writeTime;
+
+    @Label("Reply Time")
+    @Description("Waiting for the clamd reply once the content is sent")
+    @Timespan(Timespan.NANOSECONDS)
+    private long replyTime;
+
+    @Override
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    @Override
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public void addSize(long size) {
+        this.size += size;
+    }
+
+    @Override
+    public void setFiles(int files) {
+        this.files = files;
+    }
+
+    @Override
+    public void setSha256(String sha256) {
+        this.sha256 = JfrEvents.prefix(sha256);
+    }
+
+    @Override
+    public void setSha256s(List<String> sha256s) {
+        final String prefixes = sha256s.stream().filter(Objects::nonNull).map(JfrEvents::prefix).collect(Collectors.joining(","));
+        this.sha256 = prefixes.isEmpty() ? null : prefixes;
+    }
+
+    @Override
+    public void setVerdict(String verdict) {
+        this.verdict = verdict;
+    }
+
+    @Override
+    public void setConnectTime(long connectTime) {
+        this.connectTime = connectTime;
+    }
+
+    @Override
+    public void addWriteTime(long writeTime) {
+        this.writeTime += writeTime;
+    }
+
+    @Override
+    public void addReplyTime(long replyTime) {
+        this.replyTime += replyTime;
+    }
+}
@@ -0,0 +1,67 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+
+package avaas.jfr;
+
+import java.util.List;
+
+/**
+ * Flight recorder event of a clamd command, from the connection to the reply. Obtained from
+ * {@link JfrEvents#clamd()}, it records nothing when the JVM has no flight recorder.
+ */
+public interface ClamdTrace {
+
+    default void begin() {
+    }
+
+    default void commit() {
+    }
+
+    default void setCommand(String command) {
+    }
+
+    default void setBackend(String backend) {
+    }
+
+    default void addSize(long size) {
+    }
+
+    default void setFiles(int files) {
+    }
+
+    default void setSha256(String sha256) {
+    }
+
+    /**
+     * @param sha256s SHA-256 of each file of a session, null when unknown
+     */
+    default void setSha256s(List<String> sha256s) {
+    }
+
+    default void setVerdict(String verdict) {
+    }
+
+    default void setConnectTime(long connectTime) {
+    }
+
+    default void addWriteTime(long writeTime) {
+    }
+
+    default void addReplyTime(long replyTime) {
+    }
+}
@@ -0,0 +1,100 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.jfr;
+
+import java.util.function.Supplier;
+
+/**
+ * Helpers shared by the flight recorder events.
+ * <p>
+ * {@code jdk.jfr} only ships with Java 8u272 and later : the events are created through {@link #scan()} and
+ * {@link #clamd()}, which hand out no-op traces on older JVMs instead of failing with a {@link NoClassDefFoundError}.
+ */
+public final class JfrEvents {
+
+    public static final String CLEAN = "clean";
+    public static final String INFECTED = "infected";
+    public static final String BLACKLISTED = "blacklisted";
+    public static final String ERROR = "error";
+    public static final String TIMEOUT = "timeout";
+
+    // enough to correlate events with each other and with the logs
+    private static final int SHA256_PREFIX = 12;
+
+    private static final boolean AVAILABLE = available();
+
+    // method references are only linked when evaluated, so the event classes are never loaded without jdk.jfr
+    private static final Supplier<ScanTrace> SCAN = AVAILABLE ? ScanEvent::new : () -> NoScanTrace.INSTANCE;
+    private static final Supplier<ClamdTrace> CLAMD = AVAILABLE ? ClamdEvent::new : () -> NoClamdTrace.INSTANCE;
+
+    private JfrEvents() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if this JVM provides the {@code jdk.jfr} API
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return a new scan request event, not begun
+     */
+    public static ScanTrace scan() {
+        return SCAN.get();
+    }
+
+    /**
+     * @return a new clamd command event, not begun
+     */
+    public static ClamdTrace clamd() {
+        return CLAMD.get();
+    }
+
+    static String prefix(final String sha256) {
+        if (sha256 == null || sha256.length() <= SHA256_PREFIX) return sha256;
+        return sha256.substring(0, SHA256_PREFIX);
+    }
+
+    /**
+     * @param reply a clamd reply
+     * @return verdict of the reply
+     */
+    public static String verdict(final String reply) {
+        if (reply.contains("FOUND")) return INFECTED;
+        if (reply.contains("OK")) return CLEAN;
+        return ERROR;
+    }
+
+    private enum NoScanTrace implements ScanTrace {
+        INSTANCE
+    }
+
+    private enum NoClamdTrace implements ClamdTrace {
+        INSTANCE
+    }
+}
@@ -0,0 +1,203 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint driving a bounded flight recording, at {@code /jfr} :
+ * <ul>
+ *     <li>GET {@code /jfr} : state of the recording</li>
+ *     <li>POST {@code /jfr/start} : starts a new recording, discarding the previous one</li>
+ *     <li>POST {@code /jfr/stop} : stops the recording, its data can still be dumped</li>
+ *     <li>GET {@code /jfr/dump} : downloads the recorded data, to be opened with Java Mission Control</li>
+ * </ul>
+ * The recording keeps at most {@code jfr.maxsize} bytes and {@code jfr.maxage} seconds of data, so it can be left
+ * running ({@code jfr.autostart}) and dumped after the fact when a latency spike is reported. {@link ScanEvent} and
+ * {@link ClamdEvent} tie individual requests to the GC, lock and socket events of the same period.
+ * <p>
+ * Recordings may hold request data : the endpoint is sensitive.
+ * <p>
+ * The endpoint is not registered on JVMs without {@code jdk.jfr}.
+ */
+@Component
+@ConditionalOnClass(name = "jdk.jfr.FlightRecorder")
+@ConfigurationProperties(prefix = "endpoints.jfr")
+public class JfrMvcEndpoint extends AbstractMvcEndpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(JfrMvcEndpoint.class);
+
+    private static final DateTimeFormatter DUMP_NAME = DateTimeFormatter.ofPattern("'avaas-'yyyyMMdd-HHmmss'.jfr'")
+                                                                       .withZone(ZoneOffset.UTC);
+
+    private final boolean autostart;
+    private final String settings;
+    private final long maxSize;
+    private final long maxAge;
+    private final long threshold;
+
+    private Recording recording;
+
+    /**
+     * @param settings JFR settings, "default" or "profile"
+     * @param maxSize maximum size of the recorded data in bytes
+     * @param maxAge maximum age of the recorded data in seconds
+     * @param threshold minimum duration in milliseconds of the recorded scan events
+     */
+    @Autowired
+    public JfrMvcEndpoint(@Value("${jfr.autostart}") boolean autostart,
+                          @Value("${jfr.settings}") String settings,
+                          @Value("${jfr.maxsize}") long maxSize,
+                          @Value("${jfr.maxage}") long maxAge,
+                          @Value("${jfr.threshold}") long threshold) {
+        super("/jfr", true);
+        this.autostart = autostart;
+        this.settings = settings;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.threshold = threshold;
+    }
+
+    @PostConstruct
+    public void autostart() {
+        if (autostart) {
+            start();
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public synchronized Map<String, Object> status() {
+        final Map<String, Object> status = new LinkedHashMap<>();
+        status.put("available", FlightRecorder.isAvailable());
+        if (recording == null) {
+            status.put("state", "NONE");
+            return status;
+        }
+        status.put("state", recording.getState());
+        status.put("settings", settings);
+        status.put("startTime", recording.getStartTime());
+        status.put("stopTime", recording.getStopTime());
+        status.put("size", recording.getSize());
+        status.put("maxSize", recording.getMaxSize());
+        status.put("maxAge", recording.getMaxAge().getSeconds());
+        return status;
+    }
+
+    @RequestMapping(value = "/start", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public synchronized ResponseEntity<Map<String, Object>> start() {
+        if (!FlightRecorder.isAvailable()) {
+            logger.warn("Flight recorder is not available in this JVM");
+            return new ResponseEntity<>(status(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            return new ResponseEntity<>(status(), HttpStatus.CONFLICT);
+        }
+        close();
+        try {
+            final Recording r = new Recording(Configuration.getConfiguration(settings));
+            r.setName("avaas");
+            r.setToDisk(true);
+            r.setMaxSize(maxSize);
+            r.setMaxAge(Duration.ofSeconds(maxAge));
+            r.enable(ScanEvent.class).withThreshold(Duration.ofMillis(threshold));
+            r.enable(ClamdEvent.class).withThreshold(Duration.ofMillis(threshold));
+            r.start();
+            recording = r;
+            logger.info("Flight recording started with {} settings", settings);
+        } catch (IOException | ParseException e) {
+            logger.error("Unable to load flight recorder settings {}", settings, e);
+            return new ResponseEntity<>(status(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return new ResponseEntity<>(status(), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/stop", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public synchronized ResponseEntity<Map<String, Object>> stop() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            return new ResponseEntity<>(status(), HttpStatus.CONFLICT);
+        }
+        recording.stop();
+        logger.info("Flight recording stopped");
+        return new ResponseEntity<>(status(), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/dump", method = RequestMethod.GET, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void dump(HttpServletResponse response) throws IOException {
+        final Path file = Files.createTempFile("avaas-", ".jfr");
+        try {
+            synchronized (this) {
+                if (recording == null || recording.getState() == RecordingState.NEW) {
+                    response.sendError(HttpStatus.NOT_FOUND.value(), "No flight recording");
+                    return;
+                }
+                recording.dump(file);
+            }
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + DUMP_NAME.format(Instant.now()) + "\"");
+            response.setContentLengthLong(Files.size(file));
+            try (OutputStream out = response.getOutputStream()) {
+                Files.copy(file, out);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link ScanTrace} recorded by the flight recorder. Only loaded when {@link JfrEvents#isAvailable()}.
+ */
+@Name("avaas.Scan")
+@Label("Scan Request")
+@Category("Avaas")
+@Description("A scan request served by the REST API")
+@StackTrace(false)
+class ScanEvent extends Event implements ScanTrace {
+
+    @Label("Size")
+    @DataAmount
+    private long size;
+
+    @Label("SHA-256 Prefix")
+    private String sha256;
+
+    @Label("Tenant")
+    private String tenant;
+
+    @Label("Backend")
+    @Description("Scan engines which returned a result")
+    private String backend;
+
+    @Label("Verdict")
+    private String verdict;
+
+    @Label("Signature")
+    private String signature;
+
+    @Label("Read Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long readTime;
+
+    @Label("Hash Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long hashTime;
+
+    @Label("Magic Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long magicTime;
+
+    @Label("Scan Time")
+    @Description("Waiting for a scan slot and running the engines")
+    @Timespan(Timespan.NANOSECONDS)
+    private long scanTime;
+
+    @Override
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    @Override
+    public void setSha256(String sha256) {
+        this.sha256 = JfrEvents.prefix(sha256);
+    }
+
+    @Override
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    @Override
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public void setVerdict(String verdict) {
+        this.verdict = verdict;
+    }
+
+    @Override
+    public void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    @Override
+    public void setReadTime(long readTime) {
+        this.readTime = readTime;
+    }
+
+    @Override
+    public void setHashTime(long hashTime) {
+        this.hashTime = hashTime;
+    }
+
+    @Override
+    public void setMagicTime(long magicTime) {
+        this.magicTime = magicTime;
+    }
+
+    @Override
+    public void setScanTime(long scanTime) {
+        this.scanTime = scanTime;
+    }
+}
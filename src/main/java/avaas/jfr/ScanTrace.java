@@ -0,0 +1,62 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+
+package avaas.jfr;
+
+/**
+ * Flight recorder event of a scan request, from the upload to the response. Obtained from
+ * {@link JfrEvents#scan()}, it records nothing when the JVM has no flight recorder.
+ */
+public interface ScanTrace {
+
+    default void begin() {
+    }
+
+    default void commit() {
+    }
+
+    default void setSize(long size) {
+    }
+
+    default void setSha256(String sha256) {
+    }
+
+    default void setTenant(String tenant) {
+    }
+
+    default void setBackend(String backend) {
+    }
+
+    default void setVerdict(String verdict) {
+    }
+
+    default void setSignature(String signature) {
+    }
+
+    default void setReadTime(long readTime) {
+    }
+
+    default void setHashTime(long hashTime) {
+    }
+
+    default void setMagicTime(long magicTime) {
+    }
+
+    default void setScanTime(long scanTime) {
+    }
+}
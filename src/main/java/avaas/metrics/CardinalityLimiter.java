@@ -0,0 +1,64 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.metrics;
+
+import com.codahale.metrics.Counter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounds the number of distinct values used in metric names, e.g. signature names, so that a flood of
+ * unexpected values can not blow up the number of series in the registry and in the exported metrics.
+ * <p>
+ * The first {@code maxValues} distinct values are kept as is, any later one is replaced by {@value #OTHER}.
+ */
+public class CardinalityLimiter {
+
+    public static final String OTHER = "other";
+
+    private final int maxValues;
+    private final Counter overflow;
+    private final Set<String> values = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param maxValues maximum number of distinct values
+     * @param overflow incremented every time a value is replaced by {@value #OTHER}
+     */
+    public CardinalityLimiter(int maxValues, Counter overflow) {
+        this.maxValues = maxValues;
+        this.overflow = overflow;
+    }
+
+    /**
+     * @return the value made safe for a metric name, or {@value #OTHER} if too many distinct values were seen
+     */
+    public String limit(final String value) {
+        final String safe = value.replaceAll("[^a-zA-Z0-9\\-_.]", "_");
+        if (values.contains(safe)) {
+            return safe;
+        }
+        synchronized (values) {
+            if (values.contains(safe) || values.size() < maxValues && values.add(safe)) {
+                return safe;
+            }
+        }
+        overflow.inc();
+        return OTHER;
+    }
+}
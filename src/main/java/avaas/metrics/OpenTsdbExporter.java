@@ -0,0 +1,270 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pushes metrics to OpenTSDB through its HTTP {@code /api/put} API.
+ * <p>
+ * The reporter thread only converts metrics to data points and queues them in a bounded buffer, it never waits
+ * for OpenTSDB. A separate sender thread posts them in large, optionally gzipped, batches. When OpenTSDB is slow
+ * and the buffer is full, new data points are dropped and counted in {@code avaas.metrics.opentsdb.dropped}.
+ */
+public class OpenTsdbExporter extends ScheduledReporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenTsdbExporter.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A single OpenTSDB data point, serialized as expected by {@code /api/put}.
+     */
+    public static class DataPoint {
+
+        private final String metric;
+        private final long timestamp;
+        private final Number value;
+        private final Map<String, String> tags;
+
+        public DataPoint(String metric, long timestamp, Number value, Map<String, String> tags) {
+            this.metric = metric;
+            this.timestamp = timestamp;
+            this.value = value;
+            this.tags = tags;
+        }
+
+        public String getMetric() {
+            return metric;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Number getValue() {
+            return value;
+        }
+
+        public Map<String, String> getTags() {
+            return tags;
+        }
+    }
+
+    private final URL url;
+    private final Map<String, String> tags;
+    private final int batchSize;
+    private final boolean gzip;
+    private final int timeout;
+    private final BlockingQueue<DataPoint> buffer;
+    private final Thread sender;
+
+    private final Counter sent;
+    private final Counter dropped;
+    private final Counter failed;
+
+    private volatile boolean running = true;
+    private volatile boolean failing = false;
+
+    /**
+     * @param url OpenTSDB base url, e.g. http://localhost:4242
+     * @param tags tags added to every data point, OpenTSDB requires at least one
+     * @param batchSize maximum number of data points per HTTP request
+     * @param bufferSize maximum number of data points waiting to be sent
+     * @param gzip compress request bodies
+     * @param timeout connect and read timeout of HTTP requests in milliseconds
+     */
+    public OpenTsdbExporter(MetricRegistry registry, String url, Map<String, String> tags,
+                            int batchSize, int bufferSize, boolean gzip, int timeout) throws IOException {
+        super(registry, "opentsdb-exporter", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+        this.url = new URL(url.replaceAll("/+$", "") + "/api/put");
+        this.tags = tags;
+        this.batchSize = batchSize;
+        this.gzip = gzip;
+        this.timeout = timeout;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.sent = registry.counter("avaas.metrics.opentsdb.sent");
+        this.dropped = registry.counter("avaas.metrics.opentsdb.dropped");
+        this.failed = registry.counter("avaas.metrics.opentsdb.failed");
+        registry.register("avaas.metrics.opentsdb.queued", (Gauge<Integer>) buffer::size);
+        this.sender = new Thread(this::send, "avaas-opentsdb-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void report(SortedMap<String, Gauge> gauges,
+                       SortedMap<String, Counter> counters,
+                       SortedMap<String, Histogram> histograms,
+                       SortedMap<String, Meter> meters,
+                       SortedMap<String, Timer> timers) {
+        final long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            final Object value = entry.getValue().getValue();
+            if (value instanceof Number) {
+                queue(entry.getKey(), timestamp, (Number) value);
+            }
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            queue(entry.getKey(), timestamp, entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            queue(entry.getKey() + ".count", timestamp, entry.getValue().getCount());
+            queueSnapshot(entry.getKey(), timestamp, entry.getValue().getSnapshot(), 1.0);
+        }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            queueRates(entry.getKey(), timestamp, entry.getValue());
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            queueRates(entry.getKey(), timestamp, entry.getValue());
+            queueSnapshot(entry.getKey(), timestamp, entry.getValue().getSnapshot(), convertDuration(1L));
+        }
+    }
+
+    private void queueRates(final String name, final long timestamp, final Metered metered) {
+        queue(name + ".count", timestamp, metered.getCount());
+        queue(name + ".m1_rate", timestamp, convertRate(metered.getOneMinuteRate()));
+        queue(name + ".m5_rate", timestamp, convertRate(metered.getFiveMinuteRate()));
+        queue(name + ".m15_rate", timestamp, convertRate(metered.getFifteenMinuteRate()));
+        queue(name + ".mean_rate", timestamp, convertRate(metered.getMeanRate()));
+    }
+
+    private void queueSnapshot(final String name, final long timestamp, final Snapshot snapshot, final double factor) {
+        queue(name + ".min", timestamp, snapshot.getMin() * factor);
+        queue(name + ".max", timestamp, snapshot.getMax() * factor);
+        queue(name + ".mean", timestamp, snapshot.getMean() * factor);
+        queue(name + ".p50", timestamp, snapshot.getMedian() * factor);
+        queue(name + ".p75", timestamp, snapshot.get75thPercentile() * factor);
+        queue(name + ".p95", timestamp, snapshot.get95thPercentile() * factor);
+        queue(name + ".p99", timestamp, snapshot.get99thPercentile() * factor);
+        queue(name + ".p999", timestamp, snapshot.get999thPercentile() * factor);
+    }
+
+    private void queue(final String name, final long timestamp, final Number value) {
+        if (!buffer.offer(new DataPoint(sanitize(name), timestamp, value, tags))) {
+            dropped.inc();
+        }
+    }
+
+    // OpenTSDB only accepts a-z, A-Z, 0-9, -, _, . and / in metric names
+    private static String sanitize(final String name) {
+        return name.replaceAll("[^a-zA-Z0-9\\-_./]", "_");
+    }
+
+    private void send() {
+        final List<DataPoint> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                final DataPoint first = buffer.poll(1L, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                post(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void post(final List<DataPoint> batch) {
+        try {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (OutputStream out = gzip ? new GZIPOutputStream(body) : body) {
+                mapper.writeValue(out, batch);
+            }
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            connection.setFixedLengthStreamingMode(body.size());
+            try (OutputStream out = connection.getOutputStream()) {
+                body.writeTo(out);
+            }
+            final int status = connection.getResponseCode();
+            drain(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            if (status >= 300) {
+                throw new IOException("OpenTSDB replied with HTTP status " + status);
+            }
+            sent.inc(batch.size());
+            if (failing) {
+                failing = false;
+                logger.info("OpenTSDB export recovered");
+            }
+        } catch (IOException e) {
+            failed.inc(batch.size());
+            if (!failing) {
+                failing = true;
+                logger.warn("OpenTSDB export failing, data points are dropped until it recovers", e);
+            }
+        }
+    }
+
+    // reading the response fully allows the connection to be reused
+    private static void drain(final InputStream in) throws IOException {
+        if (in == null) return;
+        try (InputStream is = in) {
+            final byte[] buf = new byte[4096];
+            while (is.read(buf) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        running = false;
+        sender.interrupt();
+    }
+}
@@ -0,0 +1,56 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Prometheus pull endpoint exposing the {@link MetricRegistry}, an alternative to pushing to OpenTSDB.
+ */
+@RestController
+@ConditionalOnProperty(name = "prometheus.enabled", havingValue = "true")
+public class PrometheusController {
+
+    private final CollectorRegistry collectorRegistry = new CollectorRegistry();
+
+    @Autowired
+    public PrometheusController(MetricRegistry metricRegistry) {
+        collectorRegistry.register(new DropwizardExports(metricRegistry));
+    }
+
+    /**
+     * @return all metrics in Prometheus text format
+     */
+    @RequestMapping(value = "/prometheus", method = RequestMethod.GET, produces = TextFormat.CONTENT_TYPE_004)
+    public String scrape() throws IOException {
+        final StringWriter writer = new StringWriter();
+        TextFormat.write004(writer, collectorRegistry.metricFamilySamples());
+        return writer.toString();
+    }
+}
@@ -0,0 +1,200 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho–Corasick automaton over bytes, compiled to a dense transition table : scanning costs one table lookup per
+ * byte whatever the number of patterns, at the price of 1KB of memory per automaton state. The number of states,
+ * at most the total length of the patterns, is thus capped : {@value #DEFAULT_MAX_STATES} states by default, i.e. 64MB.
+ * <p>
+ * The automaton is immutable and thread safe, the scan state lives in a {@link Cursor}.
+ */
+public final class AhoCorasick {
+
+    public static final int DEFAULT_MAX_STATES = 64 * 1024;
+
+    // the transition table must fit in an array
+    public static final int MAX_STATES = (1 << 23) - 1;
+
+    private static final int NO_MATCH = -1;
+
+    private final List<BytePattern> patterns;
+    // delta[state << 8 | byte] : next state, complemented if a pattern ends there
+    private final int[] delta;
+    // index of a pattern ending at each state, NO_MATCH if none
+    private final int[] match;
+
+    private AhoCorasick(List<BytePattern> patterns, int[] delta, int[] match) {
+        this.patterns = patterns;
+        this.delta = delta;
+        this.match = match;
+    }
+
+    public static AhoCorasick compile(final List<BytePattern> patterns) {
+        return compile(patterns, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * @param maxStates maximum number of automaton states, at most {@value #MAX_STATES}
+     * @throws IllegalArgumentException if the patterns need more states
+     */
+    public static AhoCorasick compile(final List<BytePattern> patterns, final int maxStates) {
+        if (maxStates < 1 || maxStates > MAX_STATES) {
+            throw new IllegalArgumentException("Automaton states must be between 1 and " + MAX_STATES + ", got " + maxStates);
+        }
+        // sparse trie, state 0 is the root : the dense table is only allocated once the number of states is known
+        final Map<Integer, Integer> children = new HashMap<>();
+        final List<Integer> terminal = new ArrayList<>();
+        terminal.add(NO_MATCH);
+        for (int p = 0; p < patterns.size(); p++) {
+            final byte[] bytes = patterns.get(p).getBytes();
+            if (bytes.length == 0) continue;
+            int state = 0;
+            for (byte b : bytes) {
+                final int transition = state << 8 | (b & 0xFF);
+                Integer child = children.get(transition);
+                if (child == null) {
+                    if (terminal.size() == maxStates) {
+                        throw new IllegalArgumentException("Patterns need more than " + maxStates
+                                + " automaton states, the limit is reached at pattern " + patterns.get(p).getName()
+                                + " (" + (p + 1) + "/" + patterns.size() + ")");
+                    }
+                    child = terminal.size();
+                    children.put(transition, child);
+                    terminal.add(NO_MATCH);
+                }
+                state = child;
+            }
+            if (terminal.get(state) == NO_MATCH) terminal.set(state, p);
+        }
+
+        final int states = terminal.size();
+        final int[] delta = new int[states << 8];
+        Arrays.fill(delta, NO_MATCH);
+        for (Map.Entry<Integer, Integer> child : children.entrySet()) {
+            delta[child.getKey()] = child.getValue();
+        }
+        children.clear();
+
+        // breadth first, failure transitions are folded into the table in place : the failure state of a state is
+        // shallower, its row is already complete
+        final int[] fail = new int[states];
+        final int[] match = new int[states];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        match[0] = terminal.get(0);
+        for (int c = 0; c < 256; c++) {
+            final int child = delta[c];
+            if (child == NO_MATCH) {
+                delta[c] = 0;
+            } else {
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            match[state] = terminal.get(state) != NO_MATCH ? terminal.get(state) : match[fail[state]];
+            for (int c = 0; c < 256; c++) {
+                final int child = delta[state << 8 | c];
+                if (child == NO_MATCH) {
+                    delta[state << 8 | c] = delta[fail[state] << 8 | c];
+                } else {
+                    fail[child] = delta[fail[state] << 8 | c];
+                    queue.add(child);
+                }
+            }
+        }
+        // flag transitions to accepting states, the scan loop then needs a single lookup per byte
+        for (int i = 0; i < delta.length; i++) {
+            if (match[delta[i]] != NO_MATCH) delta[i] = ~delta[i];
+        }
+        return new AhoCorasick(patterns, delta, match);
+    }
+
+    /**
+     * @return number of states of the automaton
+     */
+    public int size() {
+        return match.length;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return the first pattern found in data, null if none
+     */
+    public BytePattern find(final byte[] data) {
+        return cursor().feed(data, 0, data.length);
+    }
+
+    /**
+     * Reads the stream until a pattern is found or the end of the stream is reached.
+     * @return the first pattern found, null if none
+     */
+    public BytePattern find(final InputStream is) throws IOException {
+        final Cursor cursor = cursor();
+        final byte[] buffer = new byte[65536];
+        int read;
+        while ((read = is.read(buffer)) >= 0) {
+            final BytePattern found = cursor.feed(buffer, 0, read);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    /**
+     * Scan state, patterns spanning several chunks are found.
+     */
+    public final class Cursor {
+
+        private int state;
+
+        private Cursor() {
+        }
+
+        /**
+         * @return the first pattern ending in this chunk, null if none
+         */
+        public BytePattern feed(final byte[] data, final int offset, final int length) {
+            final int[] delta = AhoCorasick.this.delta;
+            int s = state;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                s = delta[s << 8 | (data[i] & 0xFF)];
+                if (s < 0) {
+                    s = ~s;
+                    state = s;
+                    return patterns.get(match[s]);
+                }
+            }
+            state = s;
+            return null;
+        }
+    }
+}
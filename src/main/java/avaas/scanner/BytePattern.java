@@ -0,0 +1,84 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A named sequence of bytes, found anywhere in the content.
+ */
+public class BytePattern {
+
+    private final String name;
+
+    private final byte[] bytes;
+
+    public BytePattern(String name, byte[] bytes) {
+        this.name = name;
+        this.bytes = bytes;
+    }
+
+    /**
+     * The signature name reported when this pattern is found
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The sequence of bytes of this pattern
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Same hexadecimal notation as {@link avaas.magic.MagicSignature}, with a name instead of an offset, e.g. :
+     * <pre>
+     *     Win.Dropper.Test,4D 5A 90 00 03
+     * </pre>
+     */
+    private static final Pattern patternAsLineInFile = Pattern.compile("^([^#,\\s][^,]*?)\\s*,\\s*((([A-Fa-f0-9]{2})\\s?)+)$");
+
+    /**
+     * Convert a string to a byte pattern
+     * @param pattern the pattern as a {@link String}
+     * @return May be a {@link BytePattern}
+     */
+    public static Optional<BytePattern> fromString(final String pattern) {
+        final Matcher matcher = patternAsLineInFile.matcher(pattern.trim());
+        if (matcher.matches()) {
+            return Optional.of(new BytePattern(matcher.group(1), byteArrayFromString(matcher.group(2))));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] byteArrayFromString(final String string) {
+        final String s = string.replaceAll("\\s+", "");
+        int len = s.length();
+        byte[] data = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
+                    + Character.digit(s.charAt(i + 1), 16));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,102 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import avaas.clamav.client.ScanBatcher;
+import avaas.clamav.client.ScanCoalescer;
+import avaas.clamav.client.ScanLane;
+import avaas.clamav.client.ScanLanes;
+import avaas.tenant.Tenant;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The clamd engine : small files go through the batched fast path, others through their size lane where they
+ * are queued fairly with the scans of the other tenants, concurrent scans of the same content are coalesced.
+ */
+@Component
+@Order(0)
+public class ClamdScanner implements Scanner {
+
+    public static final String NAME = "clamd";
+
+    private static final Pattern clamdResponsePattern = Pattern.compile("^.* (.*) FOUND.*$");
+
+    private final ScanLanes scanLanes;
+    private final ScanBatcher scanBatcher;
+    private final ScanCoalescer scanCoalescer;
+
+    @Autowired
+    public ClamdScanner(ScanLanes scanLanes, ScanBatcher scanBatcher, ScanCoalescer scanCoalescer) {
+        this.scanLanes = scanLanes;
+        this.scanBatcher = scanBatcher;
+        this.scanCoalescer = scanCoalescer;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ScanResult scan(final ScanRequest request) throws IOException {
+        final byte[] replyAsBytes = scanCoalescer.scan(request.getSha256(), request.getDeadline(), () -> this.scan(request.getContent(), request));
+        final String replyAsString = new String(replyAsBytes, StandardCharsets.US_ASCII);
+        if (replyAsString.contains("OK") && !replyAsString.contains("FOUND")) {
+            return ScanResult.clean(NAME, replyAsString);
+        }
+        return ScanResult.infected(NAME, getSignatureNameFromReply(replyAsString), replyAsString);
+    }
+
+    private byte[] scan(final byte[] content, final ScanRequest request) throws IOException {
+        if (scanBatcher.accepts(content.length)) {
+            MDC.put("lane", "batch");
+            return scanBatcher.scan(content, request.getDeadline());
+        }
+        final ScanLane lane = scanLanes.select(content.length);
+        MDC.put("lane", lane.getName());
+        final ScanLane.Task<byte[]> scan = client -> {
+            try (InputStream is = new ByteArrayInputStream(content)) {
+                return client.scan(is, request.getDeadline());
+            }
+        };
+        final Tenant tenant = request.getTenant();
+        if (tenant == null) {
+            return lane.execute(request.getDeadline(), scan);
+        }
+        return lane.execute(tenant.getName(), tenant.getWeight(), content.length, request.getDeadline(), scan);
+    }
+
+    private String getSignatureNameFromReply(final String reply) {
+        final Matcher match = clamdResponsePattern.matcher(reply);
+        if (match.find()) {
+            return match.group(1);
+        } else {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process engine which looks the content SHA-256 up in a list of known bad hashes.
+ * The list is read from {@code scanner.hash.file}, one hash per line optionally followed by a signature name :
+ * <pre>
+ *    # sha256 [signature]
+ *    275A021BBFB6489E54D471899F7DB9D1663FC695EC2FE2A2C4538AABF651FD0F Eicar-Test-Signature
+ * </pre>
+ * The lookup is cheap, it runs as a pre-filter. The engine is disabled if the file can not be read.
+ */
+@Component
+@Order(-20)
+public class HashScanner implements Scanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashScanner.class);
+
+    public static final String NAME = "hash";
+
+    private static final String DEFAULT_SIGNATURE = "Avaas.Hash.Blacklisted";
+
+    private final Map<String, String> hashes;
+
+    @Autowired
+    public HashScanner(@Value("${scanner.hash.file}") String file) {
+        this.hashes = load(new File(file));
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return !hashes.isEmpty();
+    }
+
+    @Override
+    public boolean isPrefilter() {
+        return true;
+    }
+
+    @Override
+    public ScanResult scan(final ScanRequest request) {
+        final String signature = hashes.get(request.getSha256());
+        if (signature == null) {
+            return ScanResult.clean(NAME, "");
+        }
+        return ScanResult.infected(NAME, signature, request.getSha256() + " " + signature);
+    }
+
+    private static Map<String, String> load(final File file) {
+        if (!file.canRead()) {
+            logger.info("Cannot read {}, hash engine disabled", file.getAbsoluteFile());
+            return ImmutableMap.of();
+        }
+        final Map<String, String> hashes = new HashMap<>();
+        try {
+            final List<String> lines = Files.readLines(file, Charsets.UTF_8);
+            for (String line : lines) {
+                final String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+                final String[] fields = trimmed.split("\\s+", 2);
+                hashes.put(fields[0].toUpperCase(), fields.length > 1 && !Strings.isNullOrEmpty(fields[1]) ? fields[1] : DEFAULT_SIGNATURE);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read hash list", e);
+        }
+        logger.info("Loaded {} hashes", hashes.size());
+        return ImmutableMap.copyOf(hashes);
+    }
+}
@@ -0,0 +1,245 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import avaas.clamav.client.ClamAVBusyException;
+import avaas.clamav.client.ClamAVDeadlineExceededException;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs every enabled {@link Scanner} concurrently on the same content and merges their results.
+ * <p>
+ * Pre-filters run first, in order, on the request thread : a positive verdict is returned without running the others.
+ * <p>
+ * The first engine, clamd, then runs on the request thread too : it already queues in its own scan lanes and
+ * honours the request deadline. The others run meanwhile on {@code scanner.threads} threads, whose queue holds
+ * as many tasks : an engine which can not be queued fails the scan with {@link ClamAVBusyException} rather than
+ * waiting behind other requests.
+ * <p>
+ * The scan returns as soon as the first engine is done and one engine reports the content infected, the threads of
+ * the remaining pooled engines are interrupted. Otherwise it waits for all engines, pooled ones being bounded by their
+ * own timeout and by the request deadline : the content is reported clean only if every engine completed and none
+ * found it infected. The engine on the request thread is never cancelled.
+ * <p>
+ * Of the engines shipped with avaas, only clamd is not a pre-filter : with them the scan is serial and the
+ * thread pool, per engine timeouts and short-circuit are not used. They serve additional {@link Scanner} beans,
+ * e.g. a second antivirus, which then run concurrently with clamd.
+ */
+@Component
+public class MultiEngineScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultiEngineScanner.class);
+
+    private final List<Scanner> prefilters;
+    private final List<Scanner> scanners;
+    private final MetricRegistry metricRegistry;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timer;
+
+    @Autowired
+    public MultiEngineScanner(List<Scanner> scanners,
+                              MetricRegistry metricRegistry,
+                              @Value("${scanner.threads}") int threads) {
+        this.prefilters = scanners.stream().filter(s -> s.isEnabled() && s.isPrefilter()).collect(Collectors.toList());
+        this.scanners = scanners.stream().filter(s -> s.isEnabled() && !s.isPrefilter()).collect(Collectors.toList());
+        if (this.scanners.isEmpty()) {
+            throw new IllegalStateException("No scan engine enabled");
+        }
+        this.metricRegistry = metricRegistry;
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads), r -> {
+            final Thread thread = new Thread(r, "avaas-scanner-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "avaas-scanner-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        logger.info("scan engines : {}, pre-filters : {}",
+                this.scanners.stream().map(Scanner::getName).collect(Collectors.toList()),
+                this.prefilters.stream().map(Scanner::getName).collect(Collectors.toList()));
+    }
+
+    public List<Scanner> getScanners() {
+        return scanners;
+    }
+
+    public ScanVerdict scan(final ScanRequest request) throws IOException {
+        final List<ScanResult> results = new ArrayList<>(prefilters.size() + scanners.size());
+        for (Scanner prefilter : prefilters) {
+            final ScanResult result = timed(prefilter, request);
+            results.add(result);
+            if (result.isInfected()) {
+                metricRegistry.counter("avaas.scanner.prefiltered").inc();
+                return ScanVerdict.merge(results);
+            }
+        }
+        if (scanners.size() == 1) {
+            results.add(timed(scanners.get(0), request));
+        } else {
+            results.addAll(fanOut(request));
+        }
+        return ScanVerdict.merge(results);
+    }
+
+    private List<ScanResult> fanOut(final ScanRequest request) throws IOException {
+        final Map<String, String> context = MDC.getCopyOfContextMap();
+        final CompletableFuture<ScanResult> positive = new CompletableFuture<>();
+        final List<CompletableFuture<ScanResult>> futures = new ArrayList<>(scanners.size());
+        // the pooled engine runs, interrupted when its result is no longer needed
+        final List<Future<?>> tasks = new ArrayList<>(scanners.size());
+        final List<CompletableFuture<?>> settled = new ArrayList<>(scanners.size());
+        for (final Scanner scanner : scanners.subList(1, scanners.size())) {
+            final CompletableFuture<ScanResult> future = new CompletableFuture<>();
+            final Future<?> task;
+            try {
+                task = executor.submit(() -> {
+                    try {
+                        future.complete(call(scanner, request, context));
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                metricRegistry.counter(MetricRegistry.name("avaas.scanner", scanner.getName(), "rejected")).inc();
+                for (Future<?> submitted : tasks) {
+                    submitted.cancel(true);
+                }
+                throw new ClamAVBusyException("No scanner thread available for engine " + scanner.getName());
+            }
+            final int timeout = request.getDeadline().bound(scanner.getTimeout());
+            if (timeout > 0) {
+                final ScheduledFuture<?> expiry = timer.schedule(() -> {
+                    if (future.completeExceptionally(new ClamAVDeadlineExceededException(
+                            "Engine " + scanner.getName() + " did not complete within " + timeout + "ms"))) {
+                        task.cancel(true);
+                        metricRegistry.counter(MetricRegistry.name("avaas.scanner", scanner.getName(), "timeout")).inc();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+                future.whenComplete((result, e) -> expiry.cancel(false));
+            }
+            future.thenAccept(result -> {
+                if (result.isInfected()) positive.complete(result);
+            });
+            futures.add(future);
+            tasks.add(task);
+            settled.add(future.handle((result, e) -> null));
+        }
+
+        final List<ScanResult> results = new ArrayList<>(scanners.size());
+        Throwable failure = null;
+        try {
+            final ScanResult result = timed(scanners.get(0), request);
+            results.add(result);
+            if (result.isInfected()) positive.complete(result);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        CompletableFuture.anyOf(positive, CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[0]))).join();
+
+        final boolean shortCircuit = positive.isDone();
+        if (shortCircuit) {
+            metricRegistry.counter("avaas.scanner.shortcircuit").inc();
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            final CompletableFuture<ScanResult> future = futures.get(i);
+            if (!future.isDone()) {
+                future.cancel(false);
+                tasks.get(i).cancel(true);
+            } else if (!future.isCompletedExceptionally()) {
+                results.add(future.join());
+            } else if (failure == null) {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (!shortCircuit && failure != null) {
+            if (failure instanceof UncheckedIOException) throw ((UncheckedIOException) failure).getCause();
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            throw new IOException("Scan engine failure", failure);
+        }
+        return results;
+    }
+
+    private ScanResult call(final Scanner scanner, final ScanRequest request, final Map<String, String> context) {
+        if (context != null) MDC.setContextMap(context);
+        try {
+            return timed(scanner, request);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    private ScanResult timed(final Scanner scanner, final ScanRequest request) throws IOException {
+        final Timer.Context context = metricRegistry.timer(MetricRegistry.name("avaas.scanner", scanner.getName(), "latency")).time();
+        final ScanResult result;
+        try {
+            result = scanner.scan(request);
+        } catch (IOException | RuntimeException e) {
+            context.stop();
+            metricRegistry.counter(MetricRegistry.name("avaas.scanner", scanner.getName(), "error")).inc();
+            throw e;
+        }
+        result.setDuration(TimeUnit.NANOSECONDS.toMillis(context.stop()));
+        if (result.isInfected()) {
+            metricRegistry.counter(MetricRegistry.name("avaas.scanner", scanner.getName(), "positive")).inc();
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+}
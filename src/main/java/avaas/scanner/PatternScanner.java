@@ -0,0 +1,123 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * In-process pre-filter : looks for known byte patterns (droppers, test strings...) in a single pass over the
+ * content with an {@link AhoCorasick} automaton. A hit is reported infected without any clamd round-trip.
+ * <p>
+ * Patterns are read from {@code scanner.pattern.file}, or from the default list, which only holds EICAR,
+ * if it can not be read :
+ * <pre>
+ *    # name,XX XX ...
+ *    Win.Dropper.Test,4D 5A 90 00 03
+ * </pre>
+ * The automaton is limited to {@code scanner.pattern.maxstates} states, about the total length of the patterns :
+ * startup fails if they need more.
+ */
+@Component
+@Order(-10)
+public class PatternScanner implements Scanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PatternScanner.class);
+
+    public static final String NAME = "pattern";
+
+    private final boolean enabled;
+    private final AhoCorasick automaton;
+
+    @Autowired
+    public PatternScanner(@Value("${scanner.pattern.enabled}") boolean enabled,
+                          @Value("${scanner.pattern.file}") String file,
+                          @Value("${scanner.pattern.maxstates}") int maxStates) {
+        this.enabled = enabled;
+        this.automaton = enabled ? AhoCorasick.compile(load(new File(file)), maxStates) : AhoCorasick.compile(ImmutableList.of());
+        if (enabled) {
+            logger.info("Pattern automaton compiled, {} states", automaton.size());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public boolean isPrefilter() {
+        return true;
+    }
+
+    @Override
+    public ScanResult scan(final ScanRequest request) {
+        final BytePattern found = automaton.find(request.getContent());
+        if (found == null) {
+            return ScanResult.clean(NAME, "");
+        }
+        return ScanResult.infected(NAME, found.getName(), "stream: " + found.getName() + " FOUND");
+    }
+
+    private static List<BytePattern> load(final File file) {
+        try {
+            if (!file.canRead()) {
+                logger.warn("Cannot read {}, falling back to default patterns", file.getAbsoluteFile());
+                final URL url = Resources.getResource("default_patterns.txt");
+                return fromLines(Resources.readLines(url, Charsets.UTF_8));
+            }
+            return fromLines(Files.readLines(file, Charsets.UTF_8));
+        } catch (IOException e) {
+            logger.error("Unable to read patterns", e);
+            return ImmutableList.of();
+        }
+    }
+
+    public static List<BytePattern> fromLines(final List<String> lines) {
+        final ImmutableList.Builder<BytePattern> builder = ImmutableList.builder();
+        int count = 0;
+        for (String line : lines) {
+            final Optional<BytePattern> pattern = BytePattern.fromString(line);
+            if (pattern.isPresent()) {
+                builder.add(pattern.get());
+                count = count + 1;
+            }
+        }
+        logger.info("Loaded {} byte patterns", count);
+        return builder.build();
+    }
+}
@@ -0,0 +1,74 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import avaas.clamav.client.Deadline;
+import avaas.tenant.Tenant;
+
+/**
+ * Content to scan, shared by all engines. Engines must not modify it.
+ */
+public class ScanRequest {
+
+    private final String filename;
+    private final byte[] content;
+    private final String sha256;
+    private final Deadline deadline;
+    private final Tenant tenant;
+
+    public ScanRequest(String filename, byte[] content, String sha256, Deadline deadline) {
+        this(filename, content, sha256, deadline, null);
+    }
+
+    /**
+     * @param tenant tenant sharing the scan capacity with the others, null if tenants are not scheduled
+     */
+    public ScanRequest(String filename, byte[] content, String sha256, Deadline deadline, Tenant tenant) {
+        this.filename = filename;
+        this.content = content;
+        this.sha256 = sha256;
+        this.deadline = deadline;
+        this.tenant = tenant;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @return upper case hexadecimal SHA-256 of the content, empty if it could not be computed
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return the tenant of the request, null if tenants are not scheduled
+     */
+    public Tenant getTenant() {
+        return tenant;
+    }
+}
@@ -0,0 +1,72 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+/**
+ * Verdict of a single engine.
+ */
+public class ScanResult {
+
+    private final String engine;
+    private final boolean infected;
+    private final String signature;
+    private final String rawReply;
+    private long duration;
+
+    private ScanResult(String engine, boolean infected, String signature, String rawReply) {
+        this.engine = engine;
+        this.infected = infected;
+        this.signature = signature;
+        this.rawReply = rawReply;
+    }
+
+    public static ScanResult clean(String engine, String rawReply) {
+        return new ScanResult(engine, false, "", rawReply);
+    }
+
+    public static ScanResult infected(String engine, String signature, String rawReply) {
+        return new ScanResult(engine, true, signature, rawReply);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public boolean isInfected() {
+        return infected;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public String getRawReply() {
+        return rawReply;
+    }
+
+    /**
+     * @return time spent by the engine in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    void setDuration(long duration) {
+        this.duration = duration;
+    }
+}
@@ -0,0 +1,82 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import java.util.List;
+
+/**
+ * Merged verdict of all engines : infected as soon as one of them is.
+ */
+public class ScanVerdict {
+
+    private final boolean infected;
+    private final String signature;
+    private final String rawReply;
+    private final List<ScanResult> results;
+
+    private ScanVerdict(boolean infected, String signature, String rawReply, List<ScanResult> results) {
+        this.infected = infected;
+        this.signature = signature;
+        this.rawReply = rawReply;
+        this.results = results;
+    }
+
+    /**
+     * @param results engine results, in engine order
+     */
+    static ScanVerdict merge(final List<ScanResult> results) {
+        for (ScanResult result : results) {
+            if (result.isInfected()) {
+                return new ScanVerdict(true, result.getSignature(), result.getRawReply(), results);
+            }
+        }
+        String rawReply = "";
+        for (ScanResult result : results) {
+            if (!result.getRawReply().isEmpty()) {
+                rawReply = result.getRawReply();
+                break;
+            }
+        }
+        return new ScanVerdict(false, "", rawReply, results);
+    }
+
+    public boolean isInfected() {
+        return infected;
+    }
+
+    /**
+     * @return signature reported by the first positive engine, empty if clean
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return raw reply of the first positive engine, or of the first engine with a reply if clean
+     */
+    public String getRawReply() {
+        return rawReply;
+    }
+
+    /**
+     * @return results of the engines which completed, engines cancelled after a positive verdict are not included
+     */
+    public List<ScanResult> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,63 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import java.io.IOException;
+
+/**
+ * A scan engine. Every enabled {@link Scanner} bean is run by {@link MultiEngineScanner}, concurrently with the others,
+ * on the same buffered content. Engines run in bean order : the first one which is not a pre-filter runs on the
+ * request thread. Engines run on the scanner threads are interrupted once their result is no longer needed.
+ * <p>
+ * Implementations must be thread safe and should honor the request deadline.
+ */
+public interface Scanner {
+
+    /**
+     * @return engine name, reported in scan results
+     */
+    String getName();
+
+    /**
+     * @return false if the engine is not configured and must not be run
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @return true to run the engine on the request thread before the others, a positive verdict skips them.
+     * Only for cheap in-process engines.
+     */
+    default boolean isPrefilter() {
+        return false;
+    }
+
+    /**
+     * @return maximum time in milliseconds given to this engine when it runs on the scanner threads, zero to rely on the
+     * request deadline only
+     */
+    default int getTimeout() {
+        return 0;
+    }
+
+    /**
+     * @return the engine verdict
+     */
+    ScanResult scan(ScanRequest request) throws IOException;
+}
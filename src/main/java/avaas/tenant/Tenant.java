@@ -0,0 +1,61 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.tenant;
+
+/**
+ * A client of the service, with its share of the scan capacity and its quotas.
+ */
+public class Tenant {
+
+    private final String name;
+    private final int weight;
+    private final int maxInFlight;
+    private final long bytesPerSecond;
+
+    /**
+     * @param name tenant name, used in metric names
+     * @param weight share of the scan capacity relative to the other tenants
+     * @param maxInFlight maximum number of concurrent scans, queued or running, zero for no limit
+     * @param bytesPerSecond maximum upload rate, zero for no limit
+     */
+    public Tenant(String name, int weight, int maxInFlight, long bytesPerSecond) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Tenant " + name + " must have a positive weight.");
+        }
+        this.name = name;
+        this.weight = weight;
+        this.maxInFlight = maxInFlight;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,144 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.tenant;
+
+import avaas.metrics.CardinalityLimiter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Identifies the tenant of a request.
+ * <p>
+ * Tenants with their own weight and quotas are declared in {@code tenant.file}, one per line, and identified by
+ * their API key :
+ * <pre>
+ *    # name, api key, weight, max in flight, bytes per second
+ *    ingest, 9f1c0e52, 1, 8, 52428800
+ *    portal, 4be07a1d, 4, 0, 0
+ * </pre>
+ * Other requests belong to the tenant named by the tenant header if any, the default tenant otherwise,
+ * both with the default weight and quotas.
+ */
+@Component
+public class TenantRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantRegistry.class);
+
+    public static final String DEFAULT_TENANT = "default";
+
+    private final Map<String, Tenant> byApiKey;
+    private final Map<String, Tenant> byName;
+    private final Tenant defaultTenant;
+    private final int defaultWeight;
+    private final int defaultInFlight;
+    private final long defaultBytesPerSecond;
+    private final CardinalityLimiter tenantNames;
+
+    @Autowired
+    public TenantRegistry(@Value("${tenant.file}") String file,
+                          @Value("${tenant.max}") int maxTenants,
+                          @Value("${tenant.default.weight}") int defaultWeight,
+                          @Value("${tenant.default.inflight}") int defaultInFlight,
+                          @Value("${tenant.default.bytespersecond}") long defaultBytesPerSecond,
+                          MetricRegistry metricRegistry) {
+        this.defaultWeight = defaultWeight;
+        this.defaultInFlight = defaultInFlight;
+        this.defaultBytesPerSecond = defaultBytesPerSecond;
+        this.defaultTenant = new Tenant(DEFAULT_TENANT, defaultWeight, defaultInFlight, defaultBytesPerSecond);
+        this.tenantNames = new CardinalityLimiter(maxTenants, metricRegistry.counter("avaas.metrics.overflow.tenant"));
+        final Map<String, Tenant> byApiKey = new HashMap<>();
+        final Map<String, Tenant> byName = new HashMap<>();
+        for (Map.Entry<String, Tenant> entry : load(new File(file)).entrySet()) {
+            byApiKey.put(entry.getKey(), entry.getValue());
+            byName.put(entry.getValue().getName(), entry.getValue());
+        }
+        this.byApiKey = ImmutableMap.copyOf(byApiKey);
+        this.byName = ImmutableMap.copyOf(byName);
+    }
+
+    /**
+     * @param apiKey API key header, may be null
+     * @param name tenant header, may be null
+     * @return the tenant of the request, never null
+     */
+    public Tenant resolve(final String apiKey, final String name) {
+        if (!Strings.isNullOrEmpty(apiKey)) {
+            final Tenant tenant = byApiKey.get(apiKey);
+            if (tenant != null) return tenant;
+            logger.warn("Unknown API key, using default tenant");
+            return defaultTenant;
+        }
+        if (Strings.isNullOrEmpty(name)) {
+            return defaultTenant;
+        }
+        final String limited = tenantNames.limit(name);
+        // declared tenants can only be claimed with their API key
+        if (DEFAULT_TENANT.equals(limited) || byName.containsKey(limited)) {
+            return defaultTenant;
+        }
+        return new Tenant(limited, defaultWeight, defaultInFlight, defaultBytesPerSecond);
+    }
+
+    private Map<String, Tenant> load(final File file) {
+        if (!file.canRead()) {
+            logger.info("Cannot read {}, no tenant declared", file.getAbsoluteFile());
+            return ImmutableMap.of();
+        }
+        final Map<String, Tenant> tenants = new HashMap<>();
+        try {
+            final List<String> lines = Files.readLines(file, Charsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                final String trimmed = lines.get(i).trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+                // lines hold API keys : only their number is logged
+                final String[] fields = trimmed.split("\\s*,\\s*");
+                if (fields.length != 5) {
+                    logger.warn("Ignoring malformed tenant line {} of {} : {} fields instead of 5", i + 1, file, fields.length);
+                    continue;
+                }
+                try {
+                    // validated before its name takes one of the limited metric names
+                    final Tenant tenant = new Tenant(fields[0], Integer.parseInt(fields[2]),
+                                                     Integer.parseInt(fields[3]), Long.parseLong(fields[4]));
+                    tenants.put(fields[1], new Tenant(tenantNames.limit(tenant.getName()), tenant.getWeight(),
+                                                      tenant.getMaxInFlight(), tenant.getBytesPerSecond()));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Ignoring malformed tenant line {} of {} : {}", i + 1, file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read tenants", e);
+        }
+        logger.info("Loaded {} tenants", tenants.size());
+        return tenants;
+    }
+}
@@ -0,0 +1,138 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.tenant;
+
+import avaas.clamav.client.ClamAVQuotaExceededException;
+import avaas.clamav.client.ScanLane;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.RateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission of scans in front of the scan engines : enforces the tenant quotas.
+ * <p>
+ * The clamd capacity is shared between tenants further down, by each {@link ScanLane} : only scans which actually
+ * need a clamd connection wait for a slot. Scans coalesced with a concurrent one or queued for a batched session
+ * hold none, batched sessions are queued in a flow of their own. The lanes export the queue metrics of each tenant
+ * next to the ones of this class, under {@code avaas.tenant.<name>}.
+ * <p>
+ * The upload rate allows bursts of one second : a single file bigger than the tenant bytes per second is rejected.
+ */
+@Component
+public class TenantScheduler {
+
+    /**
+     * A unit of work executed once admitted.
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T call() throws IOException;
+    }
+
+    private final boolean enabled;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, TenantState> states = new ConcurrentHashMap<>();
+
+    private final class TenantState {
+        private final Tenant tenant;
+        private final RateLimiter rateLimiter;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Timer latency;
+        private final Meter rejectedInFlight;
+        private final Meter rejectedRate;
+
+        private TenantState(Tenant tenant) {
+            this.tenant = tenant;
+            this.rateLimiter = tenant.getBytesPerSecond() > 0 ? RateLimiter.create(tenant.getBytesPerSecond()) : null;
+            final String prefix = MetricRegistry.name("avaas.tenant", tenant.getName());
+            this.latency = metricRegistry.timer(MetricRegistry.name(prefix, "latency"));
+            this.rejectedInFlight = metricRegistry.meter(MetricRegistry.name(prefix, "rejected", "inflight"));
+            this.rejectedRate = metricRegistry.meter(MetricRegistry.name(prefix, "rejected", "rate"));
+            metricRegistry.register(MetricRegistry.name(prefix, "inflight"), (Gauge<Integer>) inFlight::get);
+        }
+
+        private boolean enter() {
+            final int max = tenant.getMaxInFlight();
+            while (true) {
+                final int current = inFlight.get();
+                if (max > 0 && current >= max) return false;
+                if (inFlight.compareAndSet(current, current + 1)) return true;
+            }
+        }
+    }
+
+    @Autowired
+    public TenantScheduler(@Value("${tenant.enabled}") boolean enabled,
+                           MetricRegistry metricRegistry) {
+        this.enabled = enabled;
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * @return false if tenants are neither limited nor queued fairly
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Run the task once the tenant quotas allow it.
+     *
+     * @param bytes size of the content to scan
+     * @throws ClamAVQuotaExceededException if the tenant has too many scans in flight or exceeds its upload rate
+     */
+    public <T> T execute(final Tenant tenant, final long bytes, final Task<T> task) throws IOException {
+        if (!enabled) {
+            return task.call();
+        }
+        // the first definition seen of a tenant wins, tenants are immutable
+        final TenantState state = states.computeIfAbsent(tenant.getName(), name -> new TenantState(tenant));
+        if (!state.enter()) {
+            state.rejectedInFlight.mark();
+            throw new ClamAVQuotaExceededException("Tenant " + tenant.getName() + " already has "
+                    + tenant.getMaxInFlight() + " scans in flight");
+        }
+        try {
+            // the rate limiter grants any request when nothing is owed, charging it to the next ones
+            if (state.rateLimiter != null && (bytes > tenant.getBytesPerSecond()
+                    || !state.rateLimiter.tryAcquire((int) Math.min(Math.max(bytes, 1L), Integer.MAX_VALUE)))) {
+                state.rejectedRate.mark();
+                throw new ClamAVQuotaExceededException("Tenant " + tenant.getName() + " exceeds "
+                        + tenant.getBytesPerSecond() + " bytes per second");
+            }
+            final Timer.Context latencyContext = state.latency.time();
+            try {
+                return task.call();
+            } finally {
+                latencyContext.stop();
+            }
+        } finally {
+            state.inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.tenant;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counting semaphore whose waiters are served in start-time fair queuing order : every flow gets a share of the
+ * permits proportional to its weight, whatever the number of requests it queues.
+ * <p>
+ * Each request gets a virtual start tag, the latest of the current virtual time and the finish tag of the previous
+ * request of its flow, and a finish tag, its start tag plus its cost divided by the flow weight. Free permits go to
+ * the waiter with the lowest start tag. A request which times out or is interrupted while waiting gives its cost back
+ * to its flow.
+ */
+public class WeightedFairQueue {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparingDouble((Waiter w) -> w.start).thenComparingLong(w -> w.sequence));
+    private final Map<String, Double> finishTags = new HashMap<>();
+    private int available;
+    private double virtualTime;
+    private long sequence;
+
+    private final class Waiter {
+        private final double start;
+        private final long sequence;
+        private final Condition condition = lock.newCondition();
+        private boolean granted;
+
+        private Waiter(double start, long sequence) {
+            this.start = start;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * @param permits number of concurrent holders
+     */
+    public WeightedFairQueue(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Fair queue must allow at least one permit.");
+        }
+        this.available = permits;
+    }
+
+    /**
+     * @param flow flow of the request, i.e. the tenant
+     * @param weight flow weight
+     * @param cost request cost, e.g. its size
+     * @param timeout maximum time to wait in milliseconds
+     * @return false if no permit was granted within the timeout
+     */
+    public boolean acquire(final String flow, final int weight, final long cost, final long timeout) throws InterruptedException {
+        lock.lock();
+        try {
+            final double start = Math.max(virtualTime, finishTags.getOrDefault(flow, 0d));
+            // charged right away so that the next requests of the flow queue behind this one
+            finishTags.put(flow, start + (double) cost / weight);
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                virtualTime = start;
+                return true;
+            }
+            final Waiter waiter = new Waiter(start, sequence++);
+            waiters.add(waiter);
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                while (!waiter.granted) {
+                    if (nanos <= 0L) {
+                        waiters.remove(waiter);
+                        refund(flow, weight, cost);
+                        return false;
+                    }
+                    nanos = waiter.condition.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    grant();
+                } else {
+                    waiters.remove(waiter);
+                    refund(flow, weight, cost);
+                }
+                throw e;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            grant();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // a request which never got its permit no longer delays the next ones of its flow
+    private void refund(final String flow, final int weight, final long cost) {
+        finishTags.computeIfPresent(flow, (f, finish) -> finish - (double) cost / weight);
+    }
+
+    // hands a free permit over to the next waiter, if any
+    private void grant() {
+        final Waiter next = waiters.poll();
+        if (next == null) {
+            available++;
+        } else {
+            next.granted = true;
+            virtualTime = next.start;
+            next.condition.signal();
+        }
+    }
+
+    /**
+     * @return number of waiting requests
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
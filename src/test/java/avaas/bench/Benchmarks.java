@@ -0,0 +1,47 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * JMH measures in a forked JVM, which does not inherit the system properties of the launcher.
+     *
+     * @param names system properties read by the benchmark
+     * @return the JVM arguments setting those of them which are set in this JVM, for {@code jvmArgsAppend}
+     */
+    static String[] forward(String... names) {
+        final List<String> args = new ArrayList<>();
+        for (String name : names) {
+            final String value = System.getProperty(name);
+            if (value != null) {
+                args.add("-D" + name + "=" + value);
+            }
+        }
+        return args.toArray(new String[args.size()]);
+    }
+}
@@ -0,0 +1,91 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.bench;
+
+import avaas.scanner.AhoCorasick;
+import avaas.scanner.BytePattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan rate of the pattern pre-filter over content without any hit, its worst case.
+ * One operation scans 1MB : the score in ops/s is the scan rate in MB/s. JMH forks the measured JVM,
+ * which exec:java cannot do. Run with :
+ * <pre>
+ *     mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *         -Dexec.args="-classpath %classpath avaas.bench.PatternBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PatternBenchmark {
+
+    private static final int MB = 1024 * 1024;
+
+    @Param({"1", "100", "1000"})
+    public int patterns;
+
+    @Param({"16", "64"})
+    public int length;
+
+    private AhoCorasick automaton;
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        final List<BytePattern> list = new ArrayList<>(patterns);
+        for (int i = 0; i < patterns; i++) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            list.add(new BytePattern("pattern-" + i, bytes));
+        }
+        automaton = AhoCorasick.compile(list);
+        content = new byte[MB];
+        random.nextBytes(content);
+    }
+
+    @Benchmark
+    public BytePattern scan() {
+        return automaton.find(content);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PatternBenchmark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build()).run();
+    }
+}
@@ -0,0 +1,170 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the https connector of a running avaas, to compare JSSE and OpenSSL ({@code ssl.openssl}) setups :
+ * full handshakes, resumed handshakes (session cache) and upload throughput.
+ * <p>
+ * Target is {@code -Dtls.host} / {@code -Dtls.port}, localhost:8443 by default. Certificates are not verified.
+ * Uploads are random data, which is not whitelisted : the service replies without calling clamd and
+ * the measure is dominated by TLS bulk encryption. JMH forks the measured JVM, which exec:java cannot do :
+ * run with exec:exec, the properties are passed on to the fork.
+ * <pre>
+ *     mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *         -Dexec.args="-Dtls.port=8443 -classpath %classpath avaas.bench.TlsBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TlsBenchmark {
+
+    private static final String BOUNDARY = "avaas-tls-benchmark";
+
+    @Param({"1048576"})
+    public int size;
+
+    private String host;
+    private int port;
+    private SSLSocketFactory fullHandshakes;
+    private SSLSocketFactory resumedHandshakes;
+    private byte[] upload;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        host = System.getProperty("tls.host", "localhost");
+        port = Integer.getInteger("tls.port", 8443);
+        fullHandshakes = trustAll(1);
+        resumedHandshakes = trustAll(1024);
+
+        final byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        final byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"name\"\r\n\r\nbenchmark\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"benchmark.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        final byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        upload = new byte[head.length + content.length + tail.length];
+        System.arraycopy(head, 0, upload, 0, head.length);
+        System.arraycopy(content, 0, upload, head.length, content.length);
+        System.arraycopy(tail, 0, upload, head.length + content.length, tail.length);
+    }
+
+    @Benchmark
+    public void fullHandshake() throws IOException {
+        handshake(fullHandshakes, true);
+    }
+
+    @Benchmark
+    public void resumedHandshake() throws IOException {
+        handshake(resumedHandshakes, false);
+    }
+
+    @Benchmark
+    public int upload() throws IOException {
+        final HttpsURLConnection connection =
+                (HttpsURLConnection) new URL("https://" + host + ":" + port + "/api/v1/scan").openConnection();
+        connection.setSSLSocketFactory(resumedHandshakes);
+        connection.setHostnameVerifier((hostname, session) -> true);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+        connection.setFixedLengthStreamingMode(upload.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(upload);
+        }
+        final int status = connection.getResponseCode();
+        try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            final byte[] buf = new byte[4096];
+            while (in != null && in.read(buf) >= 0) {
+                // discard
+            }
+        }
+        return status;
+    }
+
+    private void handshake(final SSLSocketFactory factory, final boolean invalidate) throws IOException {
+        try (SSLSocket socket = (SSLSocket) factory.createSocket(host, port)) {
+            socket.startHandshake();
+            if (invalidate) {
+                socket.getSession().invalidate();
+            }
+        }
+    }
+
+    private static SSLSocketFactory trustAll(final int sessionCacheSize) throws GeneralSecurityException {
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[] {new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        context.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+        return context.getSocketFactory();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TlsBenchmark.class.getSimpleName())
+                .forks(1)
+                .jvmArgsAppend(Benchmarks.forward("tls.host", "tls.port"))
+                .threads(Integer.getInteger("tls.threads", 8))
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.bench;
+
+import avaas.clamav.client.ClamAVClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares clamd transports, TCP loopback and unix domain socket, against a running clamd.
+ * <p>
+ * clamd must listen to both, configure them with {@code -Dclamd.host}, {@code -Dclamd.port}
+ * and {@code -Dclamd.socket}. JMH forks the measured JVM, which exec:java cannot do : run with exec:exec,
+ * the properties are passed on to the fork.
+ * <pre>
+ *     mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *         -Dexec.args="-Dclamd.socket=/run/clamd.sock -classpath %classpath avaas.bench.TransportBenchmark"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransportBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Transport {
+
+        @Param({"tcp", "unix"})
+        public String transport;
+
+        private ClamAVClient client;
+
+        @Setup
+        public void setup() {
+            if ("unix".equals(transport)) {
+                client = new ClamAVClient(new File(System.getProperty("clamd.socket", "/run/clamd.sock")), 10000);
+            } else {
+                client = new ClamAVClient(System.getProperty("clamd.host", "127.0.0.1"),
+                                          Integer.getInteger("clamd.port", 3310), 10000);
+            }
+        }
+    }
+
+    // ping does not use it, and thus is not run once per size
+    @State(Scope.Benchmark)
+    public static class Content {
+
+        @Param({"1024", "65536", "1048576"})
+        public int size;
+
+        private byte[] content;
+
+        @Setup
+        public void setup() {
+            content = new byte[size];
+            new Random(42).nextBytes(content);
+        }
+    }
+
+    @Benchmark
+    public boolean ping(Transport transport) throws IOException {
+        return transport.client.ping();
+    }
+
+    @Benchmark
+    public byte[] scan(Transport transport, Content content) throws IOException {
+        return transport.client.scan(content.content);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TransportBenchmark.class.getSimpleName())
+                .forks(1)
+                .jvmArgsAppend(Benchmarks.forward("clamd.host", "clamd.port", "clamd.socket"))
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build()).run();
+    }
+}
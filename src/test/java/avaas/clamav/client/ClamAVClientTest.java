@@ -0,0 +1,104 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClamAVClientTest {
+
+    private static final int SIZE_LIMIT = 100;
+
+    private FakeClamd clamd;
+    private ClamAVClient client;
+
+    @Before
+    public void start() throws IOException {
+        clamd = new FakeClamd(SIZE_LIMIT);
+        client = clamd.clientFactory().create();
+    }
+
+    @After
+    public void stop() throws IOException {
+        clamd.close();
+    }
+
+    private static String ascii(byte[] bytes) {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void stripSessionId() {
+        assertEquals("stream: OK", ascii(ClamAVClient.stripSessionId("1: stream: OK".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals("stream: OK", ascii(ClamAVClient.stripSessionId("42: stream: OK".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals("stream: OK", ascii(ClamAVClient.stripSessionId("stream: OK".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals("1:stream", ascii(ClamAVClient.stripSessionId("1:stream".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals("", ascii(ClamAVClient.stripSessionId(new byte[0])));
+    }
+
+    @Test
+    public void session() throws IOException {
+        final List<ClamAVClient.SessionReply> replies = client.scanSession(Arrays.asList(
+                "clean".getBytes(StandardCharsets.US_ASCII),
+                "EICAR".getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals(2, replies.size());
+        assertEquals("stream: OK", ascii(replies.get(0).get()));
+        assertEquals("stream: Eicar-Test-Signature FOUND", ascii(replies.get(1).get()));
+        assertEquals(Arrays.asList(2), clamd.getSessions());
+    }
+
+    @Test
+    public void partialFailure() throws IOException {
+        final List<ClamAVClient.SessionReply> replies = client.scanSession(Arrays.asList(
+                "first".getBytes(StandardCharsets.US_ASCII),
+                new byte[SIZE_LIMIT + 1],
+                "EICAR".getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals(3, replies.size());
+        assertEquals("stream: OK", ascii(replies.get(0).get()));
+        assertTrue(replies.get(1).isFailed());
+        try {
+            replies.get(1).get();
+            fail("size limit not reported");
+        } catch (ClamAVSizeLimitException e) {
+            // expected
+        }
+        // clamd closed the session, the last file went through a new one
+        assertEquals("stream: Eicar-Test-Signature FOUND", ascii(replies.get(2).get()));
+        assertEquals(Arrays.asList(2, 1), clamd.getSessions());
+    }
+
+    @Test
+    public void unreachable() throws IOException {
+        clamd.close();
+        final List<ClamAVClient.SessionReply> replies = client.scanSession(Arrays.asList(new byte[1], new byte[2]));
+
+        assertEquals(2, replies.size());
+        assertTrue(replies.get(0).isFailed());
+        assertTrue(replies.get(1).isFailed());
+    }
+}
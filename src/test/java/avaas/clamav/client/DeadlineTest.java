@@ -0,0 +1,90 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeadlineTest {
+
+    @Test
+    public void noneNeverExpires() throws Exception {
+        final Deadline deadline = Deadline.none();
+        assertFalse(deadline.isSet());
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.remaining());
+        assertEquals(2000, deadline.bound(2000));
+        assertEquals(0, deadline.bound(0));
+        deadline.check("scanning");
+    }
+
+    @Test
+    public void boundShortensTimeouts() throws Exception {
+        final Deadline deadline = Deadline.after(60000);
+        assertTrue(deadline.isSet());
+        assertFalse(deadline.isExpired());
+        assertEquals(2000, deadline.bound(2000));
+        final int infinite = deadline.bound(0);
+        assertTrue(infinite > 0 && infinite <= 60000);
+        assertTrue(deadline.bound(120000) <= 60000);
+    }
+
+    @Test
+    public void latest() throws Exception {
+        final Deadline early = Deadline.after(1000);
+        final Deadline late = Deadline.after(60000);
+        assertSame(late, early.latest(late));
+        assertSame(late, late.latest(early));
+        assertSame(Deadline.none(), early.latest(Deadline.none()));
+        assertSame(Deadline.none(), Deadline.none().latest(late));
+    }
+
+    @Test
+    public void remainingRoundsUp() throws Exception {
+        // a fraction of a millisecond left is one millisecond, not an immediate socket timeout
+        final Deadline deadline = Deadline.after(1, System.nanoTime() - 500_000);
+        if (!deadline.isExpired()) {
+            assertEquals(1, deadline.remaining());
+        }
+    }
+
+    @Test
+    public void expiredWithin() throws Exception {
+        final Deadline deadline = Deadline.after(5);
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.isExpiredWithin(10));
+        assertFalse(Deadline.none().isExpiredWithin(10));
+    }
+
+    @Test
+    public void fromStart() throws Exception {
+        // the budget started two seconds ago
+        assertTrue(Deadline.after(1000, System.nanoTime() - 2_000_000_000L).isExpired());
+    }
+
+    @Test(expected = ClamAVDeadlineExceededException.class)
+    public void expiredDeadlineRejects() throws Exception {
+        final Deadline deadline = Deadline.after(0);
+        Thread.sleep(1);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remaining());
+        assertEquals(1, deadline.bound(2000));
+        deadline.check("scanning");
+    }
+}
@@ -0,0 +1,190 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal clamd speaking PING, VERSION, INSTREAM and IDSESSION / END over TCP, for tests.
+ * <p>
+ * Contents holding "EICAR" are reported infected. Like clamd, an INSTREAM bigger than the size limit gets an error
+ * reply and its connection closed.
+ */
+public class FakeClamd implements Closeable {
+
+    public static final String VERSION = "ClamAV 0.99.2/23000/Mon Jan  1 00:00:00 2018";
+
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final long sizeLimit;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger instreams = new AtomicInteger();
+    // number of files scanned by each IDSESSION, counted before their reply is sent
+    private final List<AtomicInteger> sessions = new CopyOnWriteArrayList<>();
+
+    public FakeClamd(long sizeLimit) throws IOException {
+        this.sizeLimit = sizeLimit;
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::accept, "fake-clamd");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public ClamAVClientFactory clientFactory() {
+        return new ClamAVClientFactory("127.0.0.1", getPort(), "", 1000, 1000, 2000);
+    }
+
+    public int getConnections() {
+        return connections.size();
+    }
+
+    public int getInstreams() {
+        return instreams.get();
+    }
+
+    public List<Integer> getSessions() {
+        final List<Integer> files = new ArrayList<>();
+        for (AtomicInteger session : sessions) {
+            files.add(session.get());
+        }
+        return files;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                connections.add(socket);
+                final Thread handler = new Thread(() -> handle(socket), "fake-clamd-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(final Socket socket) {
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            final OutputStream out = s.getOutputStream();
+            AtomicInteger session = null;
+            int files = 0;
+            while (true) {
+                final int prefix = in.read();
+                if (prefix < 0) return;
+                final char terminator = prefix == 'z' ? '\0' : '\n';
+                final String command = readUntil(in, terminator);
+                final String id = session != null ? (++files) + ": " : "";
+                switch (command) {
+                    case "PING":
+                        reply(out, id + "PONG", terminator);
+                        break;
+                    case "VERSION":
+                        reply(out, id + VERSION, terminator);
+                        break;
+                    case "IDSESSION":
+                        session = new AtomicInteger();
+                        sessions.add(session);
+                        files = 0;
+                        break;
+                    case "END":
+                        return;
+                    case "INSTREAM":
+                        instreams.incrementAndGet();
+                        if (session != null) session.incrementAndGet();
+                        final byte[] content = readStream(in);
+                        if (content == null) {
+                            reply(out, id + "INSTREAM size limit exceeded. ERROR", terminator);
+                            return;
+                        }
+                        final String data = new String(content, StandardCharsets.US_ASCII);
+                        reply(out, id + (data.contains("EICAR") ? "stream: Eicar-Test-Signature FOUND" : "stream: OK"), terminator);
+                        break;
+                    default:
+                        reply(out, id + "UNKNOWN COMMAND", terminator);
+                }
+                if (session == null) return;
+            }
+        } catch (SocketException | EOFException e) {
+            // client went away
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // null if the stream exceeds the size limit
+    private byte[] readStream(final DataInputStream in) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int length;
+        while ((length = in.readInt()) > 0) {
+            final byte[] chunk = new byte[length];
+            in.readFully(chunk);
+            content.write(chunk);
+        }
+        // the whole stream is read so that closing the connection does not reset it before the reply is read
+        return content.size() > sizeLimit ? null : content.toByteArray();
+    }
+
+    private static String readUntil(final DataInputStream in, final char terminator) throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != terminator) {
+            builder.append((char) b);
+        }
+        if (b < 0) throw new EOFException();
+        return builder.toString();
+    }
+
+    private static void reply(final OutputStream out, final String reply, final char terminator) throws IOException {
+        out.write((reply + terminator).getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+}
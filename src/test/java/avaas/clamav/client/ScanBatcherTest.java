@@ -0,0 +1,188 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScanBatcherTest {
+
+    private static final int SIZE_LIMIT = 100;
+
+    private FakeClamd clamd;
+    private ScanLanes lanes;
+    private ScanBatcher batcher;
+
+    @Before
+    public void start() throws IOException {
+        clamd = new FakeClamd(SIZE_LIMIT);
+        lanes = new ScanLanes(clamd.clientFactory(), new MetricRegistry(), 1000, 4, 1000, 1000, 4, 1000, 1000);
+    }
+
+    @After
+    public void stop() throws IOException {
+        if (batcher != null) batcher.stop();
+        clamd.close();
+    }
+
+    private ScanBatcher batcher(int maxFiles, long maxBytes, int dispatchers) {
+        return batcher(maxFiles, maxBytes, dispatchers, 100);
+    }
+
+    private ScanBatcher batcher(int maxFiles, long maxBytes, int dispatchers, int queueSize) {
+        batcher = new ScanBatcher(lanes, new MetricRegistry(), true, 1000, maxFiles, maxBytes, 500, 5000, dispatchers, queueSize);
+        return batcher;
+    }
+
+    // submits all the contents at once, the futures complete with the reply or the scan error
+    private List<CompletableFuture<String>> scanAll(final ScanBatcher batcher, final byte[]... contents) {
+        final List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (byte[] content : contents) {
+            replies.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new String(batcher.scan(content, Deadline.after(5000)), StandardCharsets.US_ASCII);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        return replies;
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void splitByMaxFiles() throws Exception {
+        final ScanBatcher batcher = batcher(2, 1000, 1);
+        for (CompletableFuture<String> reply : scanAll(batcher, bytes("a"), bytes("b"), bytes("c"), bytes("d"), bytes("EICAR"))) {
+            assertTrue(reply.get(5, TimeUnit.SECONDS).startsWith("stream: "));
+        }
+
+        int files = 0;
+        for (int session : clamd.getSessions()) {
+            assertTrue("session of " + session + " files", session <= 2);
+            files += session;
+        }
+        assertEquals(5, files);
+    }
+
+    @Test
+    public void splitByMaxBytes() throws Exception {
+        final ScanBatcher batcher = batcher(10, 10, 1);
+        for (CompletableFuture<String> reply : scanAll(batcher, bytes("123456"), bytes("123456"), bytes("123456"), bytes("123456"))) {
+            assertEquals("stream: OK", reply.get(5, TimeUnit.SECONDS));
+        }
+
+        // a batch is flushed once it holds at least 10 bytes : at most two of these files
+        int files = 0;
+        for (int session : clamd.getSessions()) {
+            assertTrue("session of " + session + " files", session <= 2);
+            files += session;
+        }
+        assertEquals(4, files);
+    }
+
+    @Test
+    public void partialFailure() throws Exception {
+        final ScanBatcher batcher = batcher(3, 1000, 1);
+        final List<CompletableFuture<String>> replies = scanAll(batcher, bytes("clean"), new byte[SIZE_LIMIT + 1], bytes("EICAR"));
+
+        assertEquals("stream: OK", replies.get(0).get(5, TimeUnit.SECONDS));
+        try {
+            replies.get(1).get(5, TimeUnit.SECONDS);
+            fail("size limit not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClamAVSizeLimitException);
+        }
+        assertEquals("stream: Eicar-Test-Signature FOUND", replies.get(2).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void expiredScansAreNotSent() throws Exception {
+        // the batch lingers 500ms, longer than the deadline of its only file
+        final ScanBatcher batcher = batcher(10, 1000, 1);
+        try {
+            batcher.scan(bytes("late"), Deadline.after(50));
+            fail("deadline not enforced");
+        } catch (ClamAVDeadlineExceededException e) {
+            // expected
+        }
+        Thread.sleep(700);
+        assertEquals(0, clamd.getInstreams());
+
+        assertEquals("stream: OK", new String(batcher.scan(bytes("next"), Deadline.after(5000)), StandardCharsets.US_ASCII));
+        assertEquals(1, clamd.getInstreams());
+    }
+
+    @Test
+    public void stopCompletesQueuedScans() throws Exception {
+        // no dispatcher : scans stay queued until the batcher is stopped
+        final ScanBatcher batcher = batcher(10, 1000, 0);
+        final List<CompletableFuture<String>> replies = scanAll(batcher, bytes("a"), bytes("b"));
+        Thread.sleep(200);
+        batcher.stop();
+
+        for (CompletableFuture<String> reply : replies) {
+            try {
+                reply.get(1, TimeUnit.SECONDS);
+                fail("queued scan not completed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ClamAVBusyException);
+            }
+        }
+        assertEquals(0, clamd.getConnections());
+    }
+
+    @Test
+    public void fullQueue() throws Exception {
+        // no dispatcher : the first scan stays queued
+        final ScanBatcher batcher = batcher(10, 1000, 0, 1);
+        assertTrue(batcher.accepts(10));
+        final List<CompletableFuture<String>> replies = scanAll(batcher, bytes("a"));
+        while (batcher.accepts(10)) {
+            Thread.sleep(1);
+        }
+        try {
+            batcher.scan(bytes("b"), Deadline.after(5000));
+            fail("scan queued beyond the queue size");
+        } catch (ClamAVBusyException e) {
+            // expected
+        }
+        batcher.stop();
+        try {
+            replies.get(0).get(1, TimeUnit.SECONDS);
+            fail("queued scan not completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClamAVBusyException);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ScanCoalescerTest {
+
+    private static final String KEY = "e3b0c44298fc1c149afbf4c8996fb924";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final ScanCoalescer coalescer = new ScanCoalescer(metricRegistry);
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    // runs the scan in the background once another caller leads the scan of KEY
+    private CompletableFuture<byte[]> follow(final Deadline deadline, final ScanCoalescer.Scan scan) throws InterruptedException {
+        final CompletableFuture<byte[]> reply = CompletableFuture.supplyAsync(() -> {
+            try {
+                return coalescer.scan(KEY, deadline, scan);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (metricRegistry.meter("avaas.scan.coalesced").getCount() == 0) {
+            Thread.sleep(5);
+        }
+        return reply;
+    }
+
+    @Test
+    public void followersShareTheReply() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger scans = new AtomicInteger();
+        final CompletableFuture<byte[]> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return coalescer.scan(KEY, Deadline.none(), () -> {
+                    scans.incrementAndGet();
+                    await(release);
+                    return bytes("stream: OK");
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        while (scans.get() == 0) {
+            Thread.sleep(5);
+        }
+        final CompletableFuture<byte[]> follower = follow(Deadline.after(5000), () -> {
+            scans.incrementAndGet();
+            return bytes("unexpected");
+        });
+        release.countDown();
+
+        assertEquals("stream: OK", new String(leader.get(5, TimeUnit.SECONDS), StandardCharsets.US_ASCII));
+        assertEquals("stream: OK", new String(follower.get(5, TimeUnit.SECONDS), StandardCharsets.US_ASCII));
+        assertEquals(1, scans.get());
+    }
+
+    @Test
+    public void followerRetriesAfterLeaderDeadline() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch leading = new CountDownLatch(1);
+        final CompletableFuture<byte[]> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return coalescer.scan(KEY, Deadline.after(50), () -> {
+                    leading.countDown();
+                    await(release);
+                    throw new ClamAVDeadlineExceededException("Deadline exceeded while scanning");
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        leading.await();
+        final CompletableFuture<byte[]> follower = follow(Deadline.after(5000), () -> bytes("stream: OK"));
+        release.countDown();
+
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            fail("leader deadline not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClamAVDeadlineExceededException);
+        }
+        // the follower still had time left : it ran its own scan
+        assertEquals("stream: OK", new String(follower.get(5, TimeUnit.SECONDS), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void expiredFollowerGivesUp() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch leading = new CountDownLatch(1);
+        final CompletableFuture<byte[]> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return coalescer.scan(KEY, Deadline.none(), () -> {
+                    leading.countDown();
+                    await(release);
+                    return bytes("stream: OK");
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        leading.await();
+        final CompletableFuture<byte[]> follower = follow(Deadline.after(50), () -> bytes("unexpected"));
+
+        try {
+            follower.get(5, TimeUnit.SECONDS);
+            fail("follower deadline not enforced");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClamAVDeadlineExceededException);
+        }
+        release.countDown();
+        assertEquals("stream: OK", new String(leader.get(5, TimeUnit.SECONDS), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,214 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ScanLaneTest {
+
+    // never connects : the tasks below do not use their client
+    private static class StubClientFactory extends ClamAVClientFactory {
+        private final AtomicInteger lastTimeout = new AtomicInteger();
+
+        StubClientFactory() {
+            super("127.0.0.1", 3310, "", 100, 100, 100);
+        }
+
+        @Override
+        public ClamAVClient create(int timeout) {
+            lastTimeout.set(timeout);
+            return super.create(timeout);
+        }
+    }
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final StubClientFactory clientFactory = new StubClientFactory();
+
+    @SuppressWarnings("unchecked")
+    private int gauge(String name) {
+        return ((Gauge<Integer>) metricRegistry.getGauges().get(name)).getValue();
+    }
+
+    private static void waitFor(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // holds the only slot of the lane until release is counted down
+    private Thread hold(final ScanLane lane, final CountDownLatch held, final CountDownLatch release) {
+        final Thread thread = new Thread(() -> {
+            try {
+                lane.execute(client -> {
+                    held.countDown();
+                    waitFor(release);
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void selectAtThreshold() throws Exception {
+        final ScanLanes lanes = new ScanLanes(clientFactory, metricRegistry, 1024, 2, 100, 10, 1, 1000, 10);
+        assertSame(lanes.getSmall(), lanes.select(0));
+        assertSame(lanes.getSmall(), lanes.select(1024));
+        assertSame(lanes.getLarge(), lanes.select(1025));
+    }
+
+    @Test
+    public void laneTimeout() throws Exception {
+        final ScanLanes lanes = new ScanLanes(clientFactory, metricRegistry, 1024, 2, 100, 10, 1, 1000, 10);
+        lanes.getLarge().execute(client -> null);
+        assertEquals(1000, clientFactory.lastTimeout.get());
+        lanes.getSmall().execute(client -> null);
+        assertEquals(100, clientFactory.lastTimeout.get());
+    }
+
+    @Test
+    public void rejectAfterMaxWait() throws Exception {
+        final ScanLane lane = new ScanLane("test", 1, 100, 50, clientFactory, metricRegistry);
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = hold(lane, held, release);
+        held.await();
+        final long start = System.currentTimeMillis();
+        try {
+            lane.execute(client -> "scanned");
+            fail("slot granted to a full lane");
+        } catch (ClamAVBusyException e) {
+            assertTrue(System.currentTimeMillis() - start >= 40);
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+        assertEquals(1, metricRegistry.meter("avaas.scan.lane.test.rejected").getCount());
+        assertEquals("scanned", lane.execute(client -> "scanned"));
+    }
+
+    @Test(expected = ClamAVDeadlineExceededException.class)
+    public void expiredDeadline() throws Exception {
+        final ScanLane lane = new ScanLane("test", 1, 100, 50, clientFactory, metricRegistry);
+        lane.execute(Deadline.after(0), client -> null);
+    }
+
+    @Test
+    public void gauges() throws Exception {
+        final ScanLane lane = new ScanLane("test", 1, 100, 10000, clientFactory, metricRegistry);
+        assertEquals(0, gauge("avaas.scan.lane.test.inflight"));
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = hold(lane, held, release);
+        held.await();
+        assertEquals(1, gauge("avaas.scan.lane.test.inflight"));
+        final Thread waiter = new Thread(() -> {
+            try {
+                lane.execute(client -> null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        while (gauge("avaas.scan.lane.test.queued") == 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, gauge("avaas.scan.lane.test.queued"));
+        release.countDown();
+        holder.join();
+        waiter.join();
+        assertEquals(0, gauge("avaas.scan.lane.test.inflight"));
+        assertEquals(0, gauge("avaas.scan.lane.test.queued"));
+    }
+
+    @Test
+    public void fairBetweenFlows() throws Exception {
+        final ScanLane lane = new ScanLane("test", 1, 100, 10000, clientFactory, metricRegistry);
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = hold(lane, held, release);
+        held.await();
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> waiters = new ArrayList<>();
+        for (String flow : Arrays.asList("busy", "busy", "busy", "busy", "quiet")) {
+            final int queued = gauge("avaas.scan.lane.test.queued");
+            final Thread waiter = new Thread(() -> {
+                try {
+                    lane.execute(flow, 1, 1024, Deadline.none(), client -> order.add(flow));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            waiter.start();
+            waiters.add(waiter);
+            while (gauge("avaas.scan.lane.test.queued") == queued) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        holder.join();
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        // the quiet tenant does not wait behind the whole backlog of the busy one
+        assertEquals(5, order.size());
+        assertTrue(order.toString(), order.indexOf("quiet") < 3);
+    }
+
+    @Test
+    public void flowMetrics() throws Exception {
+        final ScanLanes lanes = new ScanLanes(clientFactory, metricRegistry, 1024, 1, 100, 50, 1, 1000, 50);
+        lanes.getSmall().execute("ingest", 1, 10, Deadline.none(), client -> null);
+        lanes.getLarge().execute("ingest", 1, 2048, Deadline.none(), client -> null);
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = hold(lanes.getSmall(), held, release);
+        held.await();
+        try {
+            lanes.getSmall().execute("ingest", 1, 10, Deadline.none(), client -> null);
+            fail("slot granted to a full lane");
+        } catch (ClamAVBusyException e) {
+            // expected
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+        // summed over the lanes
+        assertEquals(3, metricRegistry.timer("avaas.tenant.ingest.wait").getCount());
+        assertEquals(1, metricRegistry.meter("avaas.tenant.ingest.rejected.busy").getCount());
+        assertEquals(0, metricRegistry.counter("avaas.tenant.ingest.queued").getCount());
+        assertEquals(1, metricRegistry.timer("avaas.tenant.shared.wait").getCount());
+    }
+}
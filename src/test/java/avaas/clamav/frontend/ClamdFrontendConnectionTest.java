@@ -0,0 +1,219 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.clamav.frontend;
+
+import avaas.clamav.client.FakeClamd;
+import avaas.clamav.client.ScanLanes;
+import avaas.clamav.health.ClamdStatusProber;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ClamdFrontendConnectionTest {
+
+    private static final byte[] PDF = "%PDF-1.4 clean".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PDF_EICAR = "%PDF-1.4 EICAR".getBytes(StandardCharsets.US_ASCII);
+
+    private FakeClamd clamd;
+    private MetricRegistry metrics;
+    private ServerSocketChannel server;
+    private Socket socket;
+    private DataOutputStream out;
+    private InputStream in;
+
+    @Before
+    public void start() throws IOException {
+        clamd = new FakeClamd(1024 * 1024);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        socket.setSoTimeout(5000);
+        out = new DataOutputStream(socket.getOutputStream());
+        in = socket.getInputStream();
+
+        metrics = new MetricRegistry();
+        final ScanLanes lanes = new ScanLanes(clamd.clientFactory(), metrics, 1024, 2, 1000, 1000, 2, 1000, 1000);
+        final ClamdFrontendConnection connection = new ClamdFrontendConnection(server.accept(), 5000, clamd.clientFactory(), lanes, 64 * 1024,
+                new ClamdStatusProber(clamd.clientFactory(), 1000L), new BufferCounterService(new CounterBuffers()));
+        final Thread thread = new Thread(connection, "frontend-connection");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        socket.close();
+        server.close();
+        clamd.close();
+    }
+
+    private void command(String command) throws IOException {
+        out.write(("z" + command + "\0").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void stream(byte[]... chunks) throws IOException {
+        command("INSTREAM");
+        for (byte[] chunk : chunks) {
+            out.writeInt(chunk.length);
+            out.write(chunk);
+        }
+        out.writeInt(0);
+        out.flush();
+    }
+
+    private String reply() throws IOException {
+        final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) {
+            reply.write(b);
+        }
+        assertEquals("connection closed before the end of the reply", 0, b);
+        return new String(reply.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void ping() throws IOException {
+        command("PING");
+        assertEquals("PONG", reply());
+    }
+
+    @Test
+    public void version() throws IOException {
+        command("VERSION");
+        assertEquals(FakeClamd.VERSION, reply());
+    }
+
+    @Test
+    public void newlineTerminatedCommand() throws IOException {
+        out.write(bytes("nPING\n"));
+        out.flush();
+        final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            reply.write(b);
+        }
+        assertEquals("PONG", new String(reply.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void instream() throws IOException {
+        stream(PDF_EICAR);
+        assertEquals("stream: Eicar-Test-Signature FOUND", reply());
+        assertEquals(1, clamd.getInstreams());
+    }
+
+    @Test
+    public void blacklisted() throws IOException {
+        stream(bytes("MZ EICAR"));
+        assertEquals("stream: " + ClamdFrontendConnection.BLACKLISTED_SIGNATURE + " FOUND", reply());
+        assertEquals(0, clamd.getInstreams());
+    }
+
+    @Test
+    public void magicOverSeveralChunks() throws IOException {
+        // the magic number is split between the first two chunks
+        stream(bytes("%P"), bytes("DF-1.4"), bytes(" clean"));
+        assertEquals("stream: OK", reply());
+        assertEquals(1, clamd.getInstreams());
+    }
+
+    @Test
+    public void largeStream() throws IOException {
+        // bigger than the magic prefix : the beginning and the rest of the stream are both relayed
+        final byte[] large = new byte[20000];
+        System.arraycopy(PDF_EICAR, 0, large, large.length - PDF_EICAR.length, PDF_EICAR.length);
+        System.arraycopy(PDF, 0, large, 0, PDF.length);
+        stream(large);
+        assertEquals("stream: Eicar-Test-Signature FOUND", reply());
+    }
+
+    @Test
+    public void laneFromStreamSize() throws IOException {
+        command("IDSESSION");
+        // every chunk is small, the stream is not
+        final byte[][] chunks = new byte[20][];
+        chunks[0] = PDF;
+        for (int i = 1; i < chunks.length; i++) {
+            chunks[i] = new byte[100];
+        }
+        stream(chunks);
+        assertEquals("1: stream: OK", reply());
+        assertEquals(0, metrics.timer("avaas.scan.lane.small.latency").getCount());
+        assertEquals(1, metrics.timer("avaas.scan.lane.large.latency").getCount());
+
+        stream(PDF, PDF);
+        assertEquals("2: stream: OK", reply());
+        assertEquals(1, metrics.timer("avaas.scan.lane.small.latency").getCount());
+    }
+
+    @Test
+    public void tooLarge() throws IOException {
+        final byte[] large = new byte[70000];
+        System.arraycopy(PDF, 0, large, 0, PDF.length);
+        command("IDSESSION");
+        stream(large);
+        assertEquals("1: INSTREAM size limit exceeded. ERROR", reply());
+        assertEquals(0, clamd.getInstreams());
+        // the session goes on
+        command("PING");
+        assertEquals("2: PONG", reply());
+    }
+
+    @Test
+    public void clamdDown() throws IOException {
+        clamd.close();
+        stream(PDF);
+        assertTrue(reply().endsWith(" ERROR"));
+    }
+
+    @Test
+    public void session() throws IOException {
+        command("IDSESSION");
+        command("PING");
+        assertEquals("1: PONG", reply());
+        stream(PDF);
+        assertEquals("2: stream: OK", reply());
+        stream(PDF_EICAR);
+        assertEquals("3: stream: Eicar-Test-Signature FOUND", reply());
+        command("VERSION");
+        assertEquals("4: " + FakeClamd.VERSION, reply());
+        command("END");
+        assertEquals("session ended", -1, in.read());
+        assertEquals(2, clamd.getInstreams());
+    }
+}
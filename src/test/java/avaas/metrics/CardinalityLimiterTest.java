@@ -0,0 +1,43 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.metrics;
+
+import com.codahale.metrics.Counter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CardinalityLimiterTest {
+
+    @Test
+    public void limit() throws Exception {
+        final Counter overflow = new Counter();
+        final CardinalityLimiter limiter = new CardinalityLimiter(2, overflow);
+        assertEquals("Eicar-Test-Signature", limiter.limit("Eicar-Test-Signature"));
+        assertEquals("Win.Trojan.Agent-1", limiter.limit("Win.Trojan.Agent-1"));
+        assertEquals(CardinalityLimiter.OTHER, limiter.limit("Doc.Dropper.Agent-2"));
+        assertEquals("Eicar-Test-Signature", limiter.limit("Eicar-Test-Signature"));
+        assertEquals(1, overflow.getCount());
+    }
+
+    @Test
+    public void sanitize() throws Exception {
+        final CardinalityLimiter limiter = new CardinalityLimiter(10, new Counter());
+        assertEquals("Html_Phishing_Bank", limiter.limit("Html Phishing/Bank"));
+    }
+}
@@ -0,0 +1,112 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AhoCorasickTest {
+
+    private static BytePattern pattern(String name, String s) {
+        return new BytePattern(name, s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final AhoCorasick automaton = AhoCorasick.compile(ImmutableList.of(
+            pattern("he", "he"), pattern("she", "she"), pattern("his", "his"), pattern("hers", "hers")));
+
+    @Test
+    public void find() throws Exception {
+        assertEquals("she", automaton.find(ascii("ushers")).getName());
+        assertEquals("he", automaton.find(ascii("ahex")).getName());
+        assertEquals("his", automaton.find(ascii("ahis")).getName());
+        assertNull(automaton.find(ascii("hxsx")));
+        assertNull(automaton.find(new byte[0]));
+    }
+
+    @Test
+    public void stateLimit() throws Exception {
+        // root + "abc" + "abd" sharing "ab" : 5 states
+        final List<BytePattern> patterns = ImmutableList.of(pattern("abc", "abc"), pattern("abd", "abd"));
+        assertEquals(5, AhoCorasick.compile(patterns, 5).size());
+        try {
+            AhoCorasick.compile(patterns, 4);
+            fail("state limit not enforced");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("abd"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stateLimitTooHigh() throws Exception {
+        // the transition table would overflow an int index
+        AhoCorasick.compile(ImmutableList.of(pattern("abc", "abc")), 1 << 23);
+    }
+
+    @Test
+    public void suffixMatch() throws Exception {
+        // "bc" is reached through the failure transition of "abc"
+        final AhoCorasick a = AhoCorasick.compile(ImmutableList.of(pattern("abcd", "abcd"), pattern("bc", "bc")));
+        assertEquals("bc", a.find(ascii("xabcx")).getName());
+    }
+
+    @Test
+    public void acrossChunks() throws Exception {
+        final AhoCorasick.Cursor cursor = automaton.cursor();
+        assertNull(cursor.feed(ascii("xxs"), 0, 3));
+        assertNull(cursor.feed(ascii("hxh"), 0, 1));
+        assertEquals("she", cursor.feed(ascii("ex"), 0, 2).getName());
+    }
+
+    @Test
+    public void binary() throws Exception {
+        final AhoCorasick a = AhoCorasick.compile(ImmutableList.of(new BytePattern("bin", new byte[]{(byte) 0xFF, 0x00, (byte) 0x80})));
+        assertEquals("bin", a.find(new byte[]{1, (byte) 0xFF, (byte) 0xFF, 0x00, (byte) 0x80, 2}).getName());
+        assertNull(a.find(new byte[]{(byte) 0xFF, 0x00, 0x7F}));
+    }
+
+    @Test
+    public void eicar() throws Exception {
+        final List<BytePattern> patterns = PatternScanner.fromLines(
+                Resources.readLines(Resources.getResource("default_patterns.txt"), Charsets.UTF_8));
+        assertEquals(1, patterns.size());
+        final AhoCorasick a = AhoCorasick.compile(patterns);
+        final byte[] eicar = ascii("X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*");
+        assertEquals("Eicar-Test-Signature", a.find(new ByteArrayInputStream(eicar)).getName());
+    }
+
+    @Test
+    public void fromString() throws Exception {
+        final BytePattern p = BytePattern.fromString("Win.Dropper.Test, 4D 5A 90").get();
+        assertEquals("Win.Dropper.Test", p.getName());
+        assertArrayEquals(new byte[]{0x4D, 0x5A, (byte) 0x90}, p.getBytes());
+        assertFalse(BytePattern.fromString("# comment, 4D").isPresent());
+        assertFalse(BytePattern.fromString("name,").isPresent());
+    }
+}
@@ -0,0 +1,168 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.scanner;
+
+import avaas.clamav.client.ClamAVBusyException;
+import avaas.clamav.client.ClamAVDeadlineExceededException;
+import avaas.clamav.client.Deadline;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MultiEngineScannerTest {
+
+    private static final ScanRequest request = new ScanRequest("test", new byte[]{1, 2, 3}, "AB", Deadline.none());
+
+    private static class SleepingScanner implements Scanner {
+        private final String name;
+        private final long sleep;
+        private final int timeout;
+        private final boolean infected;
+        private volatile Thread thread;
+        private volatile boolean interrupted;
+
+        SleepingScanner(String name, long sleep, int timeout, boolean infected) {
+            this.name = name;
+            this.sleep = sleep;
+            this.timeout = timeout;
+            this.infected = infected;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getTimeout() {
+            return timeout;
+        }
+
+        @Override
+        public ScanResult scan(ScanRequest request) {
+            thread = Thread.currentThread();
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                Thread.currentThread().interrupt();
+            }
+            return infected ? ScanResult.infected(name, "Test.Signature", name + ": Test.Signature FOUND")
+                            : ScanResult.clean(name, name + ": OK");
+        }
+    }
+
+    @Test
+    public void clean() throws Exception {
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(
+                new SleepingScanner("a", 10, 0, false), new SleepingScanner("b", 20, 0, false)),
+                new MetricRegistry(), 4);
+        final ScanVerdict verdict = scanner.scan(request);
+        assertFalse(verdict.isInfected());
+        assertEquals("a: OK", verdict.getRawReply());
+        assertEquals(2, verdict.getResults().size());
+        scanner.stop();
+    }
+
+    @Test
+    public void firstEngineOnRequestThread() throws Exception {
+        final SleepingScanner first = new SleepingScanner("a", 10, 0, false);
+        final SleepingScanner second = new SleepingScanner("b", 10, 0, false);
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(first, second), new MetricRegistry(), 4);
+        scanner.scan(request);
+        assertSame(Thread.currentThread(), first.thread);
+        assertNotSame(Thread.currentThread(), second.thread);
+        scanner.stop();
+    }
+
+    @Test
+    public void prefilterHit() throws Exception {
+        final SleepingScanner engine = new SleepingScanner("engine", 10, 0, false);
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(
+                new SleepingScanner("prefilter", 0, 0, true) {
+                    @Override
+                    public boolean isPrefilter() {
+                        return true;
+                    }
+                }, engine),
+                new MetricRegistry(), 4);
+        final ScanVerdict verdict = scanner.scan(request);
+        assertTrue(verdict.isInfected());
+        assertNull(engine.thread);
+        scanner.stop();
+    }
+
+    @Test
+    public void shortCircuit() throws Exception {
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(
+                new SleepingScanner("fast", 10, 0, true), new SleepingScanner("slow", 5000, 0, false)),
+                new MetricRegistry(), 4);
+        final long start = System.currentTimeMillis();
+        final ScanVerdict verdict = scanner.scan(request);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertTrue(verdict.isInfected());
+        assertEquals("Test.Signature", verdict.getSignature());
+        assertEquals(1, verdict.getResults().size());
+        assertEquals("fast", verdict.getResults().get(0).getEngine());
+        scanner.stop();
+    }
+
+    @Test
+    public void shortCircuitCancelsSlowEngine() throws Exception {
+        final SleepingScanner slow = new SleepingScanner("slow", 5000, 0, false);
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(
+                new SleepingScanner("fast", 10, 0, true), slow),
+                new MetricRegistry(), 4);
+        assertTrue(scanner.scan(request).isInfected());
+        final long start = System.currentTimeMillis();
+        while (!slow.interrupted && System.currentTimeMillis() - start < 2000) {
+            Thread.sleep(1);
+        }
+        assertTrue("slow engine still running", slow.interrupted);
+        scanner.stop();
+    }
+
+    @Test(expected = ClamAVDeadlineExceededException.class)
+    public void engineTimeout() throws Exception {
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(
+                new SleepingScanner("fast", 10, 0, false), new SleepingScanner("slow", 5000, 50, false)),
+                new MetricRegistry(), 4);
+        try {
+            scanner.scan(request);
+        } finally {
+            scanner.stop();
+        }
+    }
+
+    @Test(expected = ClamAVBusyException.class)
+    public void saturatedThreads() throws Exception {
+        // one thread running an engine and one queued, the third pooled engine can not be queued
+        final MultiEngineScanner scanner = new MultiEngineScanner(Arrays.asList(
+                new SleepingScanner("a", 10, 0, false), new SleepingScanner("b", 500, 0, false),
+                new SleepingScanner("c", 500, 0, false), new SleepingScanner("d", 500, 0, false)),
+                new MetricRegistry(), 1);
+        try {
+            scanner.scan(request);
+        } finally {
+            scanner.stop();
+        }
+    }
+}
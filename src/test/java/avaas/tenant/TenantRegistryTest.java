@@ -0,0 +1,110 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.tenant;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TenantRegistryTest {
+
+    private File file;
+    private TenantRegistry registry;
+
+    @Before
+    public void load() throws IOException {
+        file = File.createTempFile("tenants", ".txt");
+        Files.write("# name, api key, weight, max in flight, bytes per second\n"
+                + "ingest, key-ingest, 1, 8, 52428800\n"
+                + "broken, key-broken, one, 8, 0\n"
+                + "short, key-short, 1\n"
+                + "weightless, key-weightless, 0, 0, 0\n"
+                + "\n"
+                + "portal, key-portal, 4, 0, 0\n", file, Charsets.UTF_8);
+        registry = new TenantRegistry(file.getPath(), 10, 1, 0, 0L, new MetricRegistry());
+    }
+
+    @After
+    public void delete() {
+        file.delete();
+    }
+
+    @Test
+    public void apiKey() {
+        final Tenant ingest = registry.resolve("key-ingest", null);
+        assertEquals("ingest", ingest.getName());
+        assertEquals(1, ingest.getWeight());
+        assertEquals(8, ingest.getMaxInFlight());
+        assertEquals(52428800L, ingest.getBytesPerSecond());
+        assertEquals(4, registry.resolve("key-portal", null).getWeight());
+    }
+
+    @Test
+    public void apiKeyWinsOverHeader() {
+        assertEquals("portal", registry.resolve("key-portal", "ingest").getName());
+    }
+
+    @Test
+    public void malformedLinesAreSkipped() {
+        // the lines after the malformed ones are still loaded
+        assertEquals("portal", registry.resolve("key-portal", null).getName());
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve("key-broken", null).getName());
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve("key-short", null).getName());
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve("key-weightless", null).getName());
+    }
+
+    @Test
+    public void unknownApiKey() {
+        final Tenant tenant = registry.resolve("key-unknown", "anything");
+        assertEquals(TenantRegistry.DEFAULT_TENANT, tenant.getName());
+        assertEquals(1, tenant.getWeight());
+    }
+
+    @Test
+    public void declaredNameCanNotBeClaimed() {
+        // without its API key, a declared tenant is not granted its weight and quotas
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve(null, "portal").getName());
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve("", "ingest").getName());
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve(null, TenantRegistry.DEFAULT_TENANT).getName());
+    }
+
+    @Test
+    public void undeclaredName() {
+        final Tenant tenant = registry.resolve(null, "batch-jobs");
+        assertEquals("batch-jobs", tenant.getName());
+        assertEquals(1, tenant.getWeight());
+        assertEquals(0, tenant.getMaxInFlight());
+        assertEquals(TenantRegistry.DEFAULT_TENANT, registry.resolve(null, null).getName());
+    }
+
+    @Test
+    public void missingFile() {
+        final TenantRegistry empty = new TenantRegistry(file.getPath() + ".missing", 10, 2, 0, 0L, new MetricRegistry());
+        final Tenant tenant = empty.resolve("key-ingest", null);
+        assertEquals(TenantRegistry.DEFAULT_TENANT, tenant.getName());
+        assertEquals(2, tenant.getWeight());
+    }
+}
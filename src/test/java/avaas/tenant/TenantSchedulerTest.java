@@ -0,0 +1,75 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+
+package avaas.tenant;
+
+import avaas.clamav.client.ClamAVQuotaExceededException;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TenantSchedulerTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final TenantScheduler scheduler = new TenantScheduler(true, metricRegistry);
+
+    @Test
+    public void disabled() throws Exception {
+        final Tenant tenant = new Tenant("ingest", 1, 1, 1000);
+        assertEquals("scanned", new TenantScheduler(false, metricRegistry).execute(tenant, 1_000_000, () -> "scanned"));
+    }
+
+    @Test
+    public void fileBiggerThanRate() throws Exception {
+        final Tenant tenant = new Tenant("ingest", 1, 0, 1000);
+        try {
+            scheduler.execute(tenant, 1001, () -> "scanned");
+            fail("upload above the rate admitted");
+        } catch (ClamAVQuotaExceededException e) {
+            // expected
+        }
+        assertEquals(1, metricRegistry.meter("avaas.tenant.ingest.rejected.rate").getCount());
+        assertEquals("scanned", scheduler.execute(tenant, 1000, () -> "scanned"));
+    }
+
+    @Test
+    public void rate() throws Exception {
+        final Tenant tenant = new Tenant("ingest", 1, 0, 1000);
+        assertEquals("scanned", scheduler.execute(tenant, 800, () -> "scanned"));
+        try {
+            scheduler.execute(tenant, 800, () -> "scanned");
+            fail("second upload within the same second admitted");
+        } catch (ClamAVQuotaExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void inFlight() throws Exception {
+        final Tenant tenant = new Tenant("ingest", 1, 1, 0);
+        try {
+            scheduler.execute(tenant, 10, () -> scheduler.execute(tenant, 10, () -> "scanned"));
+            fail("second scan in flight admitted");
+        } catch (ClamAVQuotaExceededException e) {
+            // expected
+        }
+        assertEquals(1, metricRegistry.meter("avaas.tenant.ingest.rejected.inflight").getCount());
+        assertEquals(1, metricRegistry.timer("avaas.tenant.ingest.latency").getCount());
+    }
+}
@@ -0,0 +1,144 @@
+/******************************************************************************
+ **
+ ** This library is free software; you can redistribute it and/or
+ ** modify it under the terms of the GNU Lesser General Public
+ ** License as published by the Free Software Foundation; either
+ ** version 2.1 of the License, or (at your option) any later version.
+ **
+ ** This library is distributed in the hope that it will be useful,
+ ** but WITHOUT ANY WARRANTY; without even the implied warranty of
+ ** MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ ** Lesser General Public License for more details.
+ **
+ ** You should have received a copy of the GNU Lesser General Public
+ ** License along with this library; if not, write to the Free Software
+ ** Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *********************************************************************************/
+
+package avaas.tenant;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WeightedFairQueueTest {
+
+    // queues a request and waits for it to be enqueued, the served flows are appended to order
+    private static Thread enqueue(final WeightedFairQueue queue, final String flow, final int weight,
+                                  final List<String> order) throws InterruptedException {
+        final int queued = queue.getQueueLength();
+        final Thread thread = new Thread(() -> {
+            try {
+                if (queue.acquire(flow, weight, 1, 10000)) {
+                    order.add(flow);
+                    queue.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        while (queue.getQueueLength() == queued) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+    @Test
+    public void fairness() throws Exception {
+        final WeightedFairQueue queue = new WeightedFairQueue(1);
+        assertTrue(queue.acquire("busy", 1, 1, 0));
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(enqueue(queue, "busy", 1, order));
+        }
+        threads.add(enqueue(queue, "quiet", 1, order));
+        queue.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the late request of the quiet flow does not wait behind the whole backlog of the busy one
+        assertEquals(5, order.size());
+        assertTrue(order.indexOf("quiet") < 3);
+    }
+
+    @Test
+    public void weight() throws Exception {
+        final WeightedFairQueue queue = new WeightedFairQueue(1);
+        assertTrue(queue.acquire("holder", 1, 1, 0));
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(enqueue(queue, "light", 1, order));
+        }
+        for (int i = 0; i < 4; i++) {
+            threads.add(enqueue(queue, "heavy", 4, order));
+        }
+        queue.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8, order.size());
+        // the heavy flow gets four slots for each one of the light flow
+        assertEquals(4, order.subList(0, 5).stream().filter("heavy"::equals).count());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        final WeightedFairQueue queue = new WeightedFairQueue(1);
+        assertTrue(queue.acquire("a", 1, 1, 0));
+        assertFalse(queue.acquire("b", 1, 1, 20));
+        assertEquals(0, queue.getQueueLength());
+        queue.release();
+        assertTrue(queue.acquire("b", 1, 1, 0));
+    }
+
+    @Test
+    public void timeoutRefundsCost() throws Exception {
+        final WeightedFairQueue queue = new WeightedFairQueue(1);
+        assertTrue(queue.acquire("a", 1, 1, 0));
+        // the expensive request never ran, it must not push back the next request of its flow
+        assertFalse(queue.acquire("b", 1, 1000, 20));
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final Thread b = enqueue(queue, "b", 1, order);
+        final Thread c = enqueue(queue, "c", 1, order);
+        queue.release();
+        b.join();
+        c.join();
+        assertEquals(Arrays.asList("b", "c"), order);
+    }
+
+    @Test
+    public void interruptRefundsCost() throws Exception {
+        final WeightedFairQueue queue = new WeightedFairQueue(1);
+        assertTrue(queue.acquire("a", 1, 1, 0));
+        final Thread interrupted = new Thread(() -> {
+            try {
+                queue.acquire("b", 1, 1000, 10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        interrupted.start();
+        while (queue.getQueueLength() == 0) {
+            Thread.sleep(1);
+        }
+        interrupted.interrupt();
+        interrupted.join();
+        assertEquals(0, queue.getQueueLength());
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final Thread b = enqueue(queue, "b", 1, order);
+        final Thread c = enqueue(queue, "c", 1, order);
+        queue.release();
+        b.join();
+        c.join();
+        assertEquals(Arrays.asList("b", "c"), order);
+    }
+}